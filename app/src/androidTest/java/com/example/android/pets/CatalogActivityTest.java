@@ -0,0 +1,160 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetMainThreadGuard;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.Espresso.openActionBarOverflowOrOptionsMenu;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.action.ViewActions.typeText;
+import static android.support.test.espresso.matcher.RootMatchers.isDialog;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the catalog's flows with {@link PetMainThreadGuard} set to crash, so any of them reading
+ * or writing the database on the main thread fails.
+ *
+ * Works on the app's own database, which is emptied first. The deleted pets can still be
+ * restored until they're purged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CatalogActivityTest {
+
+    private static final Pet REX = new Pet(Pet.NO_ID, "Rex", "Labrador", PetEntry.GENDER_MALE, 30);
+    private static final Pet TOM = new Pet(Pet.NO_ID, "Tom", "Persian", PetEntry.GENDER_MALE, 4);
+
+    /** Longest wait for the write queue and the loaders */
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final long POLL_MILLIS = 100;
+
+    @Rule
+    public ActivityTestRule<CatalogActivity> mActivityRule =
+            new ActivityTestRule<CatalogActivity>(CatalogActivity.class, false, false);
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        assumeTrue("The guard only runs in debug builds", BuildConfig.DEBUG);
+
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_DEATH);
+        PetMainThreadGuard.clearViolations();
+
+        // Off the main thread, as the test runs.
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+        mResolver.insert(PetEntry.CONTENT_URI, REX.toContentValues());
+        mResolver.insert(PetEntry.CONTENT_URI, TOM.toContentValues());
+
+        mActivityRule.launchActivity(null);
+    }
+
+    @After
+    public void tearDown() {
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_LOG);
+        PetMainThreadGuard.clearViolations();
+    }
+
+    @Test
+    public void load() throws InterruptedException {
+        awaitListed(2);
+
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    @Test
+    public void insertDummyData() throws InterruptedException {
+        awaitListed(2);
+
+        openActionBarOverflowOrOptionsMenu(InstrumentationRegistry.getTargetContext());
+        onView(withText(R.string.action_insert_dummy_data)).perform(click());
+
+        awaitListed(22);
+        assertEquals(22, countPets());
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    @Test
+    public void deleteAllAndUndo() throws InterruptedException {
+        awaitListed(2);
+
+        openActionBarOverflowOrOptionsMenu(InstrumentationRegistry.getTargetContext());
+        onView(withText(R.string.action_delete_all_entries)).perform(click());
+        onView(withText(R.string.delete)).inRoot(isDialog()).perform(click());
+        awaitListed(0);
+        assertEquals(0, countPets());
+
+        onView(withText(R.string.undo)).perform(click());
+        awaitListed(2);
+        assertEquals(2, countPets());
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    @Test
+    public void search() throws InterruptedException {
+        awaitListed(2);
+
+        onView(withId(R.id.action_search)).perform(click());
+        onView(withId(R.id.search_src_text)).perform(typeText(REX.getName()));
+
+        awaitListed(1);
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    /**
+     * Waits for the list to show the given number of pets.
+     */
+    private void awaitListed(int expected) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (countListed() != expected) {
+            assertTrue("Not listed: " + expected + " pets", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private int countListed() {
+        final int[] count = new int[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                RecyclerView list = (RecyclerView) mActivityRule.getActivity()
+                        .findViewById(R.id.list_view_pet);
+                count[0] = list.getAdapter().getItemCount();
+            }
+        });
+        return count[0];
+    }
+
+    private int countPets() {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                null, null, null);
+        try {
+            return cursor.getCount();
+        }
+        finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.android.pets;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetMainThreadGuard;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static android.support.test.espresso.Espresso.onView;
+import static android.support.test.espresso.Espresso.openActionBarOverflowOrOptionsMenu;
+import static android.support.test.espresso.action.ViewActions.click;
+import static android.support.test.espresso.action.ViewActions.closeSoftKeyboard;
+import static android.support.test.espresso.action.ViewActions.typeText;
+import static android.support.test.espresso.assertion.ViewAssertions.matches;
+import static android.support.test.espresso.matcher.RootMatchers.isDialog;
+import static android.support.test.espresso.matcher.ViewMatchers.withId;
+import static android.support.test.espresso.matcher.ViewMatchers.withText;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the editor's flows with {@link PetMainThreadGuard} set to crash, so any of them reading
+ * or writing the database on the main thread fails.
+ *
+ * Works on the app's own database, which is emptied first. The deleted pets can still be
+ * restored until they're purged.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EditorActivityTest {
+
+    private static final Pet REX = new Pet(Pet.NO_ID, "Rex", "Labrador", PetEntry.GENDER_MALE, 30);
+
+    /** Longest wait for the write queue */
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final long POLL_MILLIS = 100;
+
+    @Rule
+    public ActivityTestRule<EditorActivity> mActivityRule =
+            new ActivityTestRule<EditorActivity>(EditorActivity.class, false, false);
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private Uri mRexUri;
+
+    @Before
+    public void setUp() {
+        assumeTrue("The guard only runs in debug builds", BuildConfig.DEBUG);
+
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_DEATH);
+        PetMainThreadGuard.clearViolations();
+
+        // Off the main thread, as the test runs.
+        mContext = InstrumentationRegistry.getTargetContext();
+        mResolver = mContext.getContentResolver();
+        mResolver.delete(PetEntry.CONTENT_URI, null, null);
+        mRexUri = mResolver.insert(PetEntry.CONTENT_URI, REX.toContentValues());
+    }
+
+    @After
+    public void tearDown() {
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_LOG);
+        PetMainThreadGuard.clearViolations();
+    }
+
+    @Test
+    public void open() {
+        openRex();
+
+        onView(withId(R.id.edit_pet_breed)).check(matches(withText(REX.getBreed())));
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    @Test
+    public void save() throws InterruptedException {
+        mActivityRule.launchActivity(null);
+
+        onView(withId(R.id.edit_pet_name)).perform(typeText("Tom"), closeSoftKeyboard());
+        onView(withId(R.id.edit_pet_breed)).perform(typeText("Persian"), closeSoftKeyboard());
+        onView(withId(R.id.edit_pet_weight)).perform(typeText("4"), closeSoftKeyboard());
+        onView(withId(R.id.action_save)).perform(click());
+
+        awaitCount(PetEntry.COLUMN_NAME + "='Tom'", 1);
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    @Test
+    public void delete() throws InterruptedException {
+        openRex();
+
+        openActionBarOverflowOrOptionsMenu(mContext);
+        onView(withText(R.string.action_delete)).perform(click());
+        onView(withText(R.string.delete)).inRoot(isDialog()).perform(click());
+
+        awaitCount(null, 0);
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    @Test
+    public void pickPhoto() throws IOException, InterruptedException {
+        // The chooser is answered right away with a small image, no picker app needed.
+        Intent picked = new Intent().setData(writeImage());
+        Instrumentation.ActivityMonitor chooser = InstrumentationRegistry.getInstrumentation()
+                .addMonitor(new IntentFilter(Intent.ACTION_CHOOSER),
+                        new Instrumentation.ActivityResult(Activity.RESULT_OK, picked), true);
+        try {
+            openRex();
+
+            onView(withId(R.id.image_pet_photo)).perform(click());
+            assertEquals(1, chooser.getHits());
+            onView(withId(R.id.action_save)).perform(click());
+        }
+        finally {
+            InstrumentationRegistry.getInstrumentation().removeMonitor(chooser);
+        }
+
+        awaitCount(PetEntry.COLUMN_PHOTO + " IS NOT NULL", 1);
+        assertEquals(Collections.<String>emptyList(), PetMainThreadGuard.getViolations());
+    }
+
+    /**
+     * Opens the editor on Rex and waits for the pet to be shown.
+     */
+    private void openRex() {
+        mActivityRule.launchActivity(new Intent().setData(mRexUri));
+        onView(withId(R.id.edit_pet_name)).check(matches(withText(REX.getName())));
+    }
+
+    private Uri writeImage() throws IOException {
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.GRAY);
+        File file = new File(mContext.getCacheDir(), "editor_test_photo.png");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+        finally {
+            out.close();
+        }
+        return Uri.fromFile(file);
+    }
+
+    /**
+     * Waits for the given number of pets to match the selection.
+     */
+    private void awaitCount(String selection, int expected) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (countPets(selection) != expected) {
+            assertTrue("Not written: " + selection, SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private int countPets(String selection) {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                selection, null, null);
+        try {
+            return cursor.getCount();
+        }
+        finally {
+            cursor.close();
+        }
+    }
+}
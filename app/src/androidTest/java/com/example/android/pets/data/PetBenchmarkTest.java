@@ -0,0 +1,97 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs {@link PetBenchmark} from the command line, and compares its results with an earlier run.
+ * It only runs when asked to, with instrumentation arguments:
+ *
+ * <ul>
+ * <li>{@code benchmarkSizes}: table sizes separated by commas, or "default" for
+ * {@link PetBenchmark#DEFAULT_SIZES}</li>
+ * <li>{@code benchmarkLabel}: stored with the results, such as the commit built; optional</li>
+ * <li>{@code benchmarkBaseline}: results file to compare with, absolute or in
+ * {@link PetBenchmark#getResultsDirectory()}; optional</li>
+ * </ul>
+ *
+ * The comparison is saved next to the results and logged, see {@link PetBenchmarkComparison}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetBenchmarkTest {
+
+    private static final String LOG_TAG = PetBenchmarkTest.class.getSimpleName();
+
+    private static final String ARGUMENT_SIZES = "benchmarkSizes";
+    private static final String ARGUMENT_LABEL = "benchmarkLabel";
+    private static final String ARGUMENT_BASELINE = "benchmarkBaseline";
+
+    @Test
+    public void runBenchmark() throws IOException {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String sizes = arguments.getString(ARGUMENT_SIZES);
+        assumeTrue("Benchmark not asked for", sizes != null);
+
+        PetBenchmark benchmark = new PetBenchmark(InstrumentationRegistry.getTargetContext());
+        File baseline = null;
+        String baselineName = arguments.getString(ARGUMENT_BASELINE);
+        if (baselineName != null) {
+            baseline = new File(baselineName);
+            if (!baseline.isAbsolute()) {
+                baseline = new File(benchmark.getResultsDirectory(), baselineName);
+            }
+            // Before the run, rather than finding out after minutes of it
+            assertTrue("No baseline at " + baseline, baseline.isFile());
+        }
+
+        File results = benchmark.run(parseSizes(sizes), arguments.getString(ARGUMENT_LABEL));
+        Log.i(LOG_TAG, "Saved benchmark results to " + results);
+        if (baseline == null) {
+            return;
+        }
+
+        StringWriter comparison = new StringWriter();
+        PetBenchmarkComparison.write(baseline, results, comparison);
+        File output = new File(results.getParentFile(),
+                results.getName().replace("benchmark-", "comparison-").replace(".json", ".tsv"));
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+        try {
+            writer.write(comparison.toString());
+        }
+        finally {
+            writer.close();
+        }
+        Log.i(LOG_TAG, "Compared with " + baseline + ", saved to " + output);
+        for (String line : comparison.toString().split("\n")) {
+            Log.i(LOG_TAG, line);
+        }
+    }
+
+    private static int[] parseSizes(String sizes) {
+        if ("default".equals(sizes)) {
+            return PetBenchmark.DEFAULT_SIZES;
+        }
+        String[] values = TextUtils.split(sizes, ",");
+        int[] result = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = Integer.parseInt(values[i].trim());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Reads a pet on another thread while a batch changing it is open, and checks what the cache of
+ * {@link PetProvider} holds once the batch commits.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetCacheTest {
+
+    private static final String DATABASE_NAME = "cache_test.db";
+
+    private static final Pet REX = new Pet(Pet.NO_ID, "Rex", "Labrador", PetEntry.GENDER_MALE, 30);
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private ReadingProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        mProvider = new ReadingProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void batchUpdateReachesCacheOnCommit() throws OperationApplicationException {
+        Uri rex = insertCachedPet();
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_WEIGHT, 35);
+
+        applyBatch(ContentProviderOperation.newUpdate(rex).withValues(values).build());
+
+        // Not committed yet, the other thread sees Rex as he was.
+        assertEquals(REX, withoutId(mProvider.mConcurrentRead.get()));
+        assertEquals(35, queryPet(rex).getWeight());
+    }
+
+    @Test
+    public void batchDeleteReachesCacheOnCommit() throws OperationApplicationException {
+        Uri rex = insertCachedPet();
+
+        applyBatch(ContentProviderOperation.newDelete(rex).build());
+
+        assertEquals(REX, withoutId(mProvider.mConcurrentRead.get()));
+        assertNull(queryPet(rex));
+    }
+
+    @Test
+    public void batchRolledBackLeavesCache() throws OperationApplicationException {
+        Uri rex = insertCachedPet();
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_WEIGHT, 35);
+
+        // The assertion fails, Rex is still there: the batch rolls back.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newUpdate(rex).withValues(values).build());
+        operations.add(ContentProviderOperation.newAssertQuery(rex).withExpectedCount(0).build());
+        try {
+            mProvider.applyBatch(operations);
+            fail("Batch committed");
+        } catch (OperationApplicationException expected) {
+        }
+        assertEquals(REX, withoutId(queryPet(rex)));
+    }
+
+    private Uri insertCachedPet() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, REX.toContentValues());
+        assertNotNull(uri);
+        // Cached from now on
+        assertEquals(REX, withoutId(queryPet(uri)));
+        return uri;
+    }
+
+    private void applyBatch(ContentProviderOperation operation) throws OperationApplicationException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(operation);
+        mProvider.applyBatch(operations);
+    }
+
+    private Pet queryPet(Uri uri) {
+        Cursor cursor = mProvider.query(uri, PetCache.COLUMNS, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.moveToFirst() ? new PetCursorMapper(cursor).toPet() : null;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private static Pet withoutId(Pet pet) {
+        assertNotNull(pet);
+        return new Pet(Pet.NO_ID, pet.getName(), pet.getBreed(), pet.getGender(), pet.getWeight());
+    }
+
+    /**
+     * Reads the changed pet on another thread right after each write, while the batch is open.
+     */
+    private class ReadingProvider extends PetProvider {
+
+        final AtomicReference<Pet> mConcurrentRead = new AtomicReference<Pet>();
+
+        ReadingProvider(PetDbHelper dbHelper) {
+            super(dbHelper);
+        }
+
+        @Override
+        public int update(@NonNull Uri uri, @Nullable ContentValues values,
+                          @Nullable String selection, @Nullable String[] selectionArgs) {
+            int rowsUpdated = super.update(uri, values, selection, selectionArgs);
+            readConcurrently(uri);
+            return rowsUpdated;
+        }
+
+        @Override
+        public int delete(@NonNull Uri uri, @Nullable String selection,
+                          @Nullable String[] selectionArgs) {
+            int rowsDeleted = super.delete(uri, selection, selectionArgs);
+            readConcurrently(uri);
+            return rowsDeleted;
+        }
+
+        private void readConcurrently(final Uri uri) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mConcurrentRead.set(queryPet(uri));
+                }
+            });
+            reader.start();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+}
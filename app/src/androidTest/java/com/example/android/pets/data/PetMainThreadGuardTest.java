@@ -0,0 +1,109 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that {@link PetMainThreadGuard} catches the database being opened on the main thread,
+ * and only there.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetMainThreadGuardTest {
+
+    private static final String DATABASE_NAME = "main_thread_guard_test.db";
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        assumeTrue("The guard only runs in debug builds", BuildConfig.DEBUG);
+
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        PetMainThreadGuard.clearViolations();
+    }
+
+    @After
+    public void tearDown() {
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_LOG);
+        PetMainThreadGuard.clearViolations();
+        if (mDbHelper != null) {
+            mDbHelper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    @Test
+    public void openOnMainThreadFailsWithPenaltyDeath() {
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_DEATH);
+
+        RuntimeException thrown = openOnMainThread();
+
+        assertNotNull("The main thread opened the database", thrown);
+        assertTrue(thrown instanceof IllegalStateException);
+        assertEquals(1, PetMainThreadGuard.getViolations().size());
+    }
+
+    @Test
+    public void openOnMainThreadIsCountedWithPenaltyLog() {
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_LOG);
+
+        assertNull(openOnMainThread());
+        assertNull(openOnMainThread());
+
+        // Both calls come from the same call site.
+        assertEquals(1, PetMainThreadGuard.getViolations().size());
+        assertTrue(PetMainThreadGuard.getViolations().get(0).endsWith(" x2"));
+    }
+
+    @Test
+    public void openOnWorkerThreadPasses() {
+        PetMainThreadGuard.setPenalty(PetMainThreadGuard.PENALTY_DEATH);
+        // Tests run on the instrumentation thread, not the main one.
+        assertNotSame(Looper.getMainLooper(), Looper.myLooper());
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        assertTrue(database.isOpen());
+        assertTrue(PetMainThreadGuard.getViolations().isEmpty());
+    }
+
+    /**
+     * Opens the database on the main thread.
+     *
+     * @return what it threw, or null if it didn't
+     */
+    private RuntimeException openOnMainThread() {
+        final RuntimeException[] thrown = new RuntimeException[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mDbHelper.getWritableDatabase();
+                } catch (RuntimeException e) {
+                    thrown[0] = e;
+                }
+            }
+        });
+        return thrown[0];
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Upgrades a database of every older version to the current one, and checks that it ends up
+ * with the same schema and vacuum mode as a new database, that its pets survived with their
+ * index entries, statistics and change log, and that the triggers of the current version work
+ * on it.
+ */
+@RunWith(Parameterized.class)
+public class PetMigrationTest {
+
+    private static final String OLD_DATABASE_NAME = "migration_test_old.db";
+    private static final String NEW_DATABASE_NAME = "migration_test_new.db";
+
+    /** Pets of the old database, they get the IDs 1 to 4 */
+    private static final Pet[] PETS = {
+            new Pet(1, "Rex", "Labrador", PetEntry.GENDER_MALE, 30),
+            new Pet(2, "Mittens", null, PetEntry.GENDER_FEMALE, 4),
+            new Pet(3, "Toto", "Terrier", PetEntry.GENDER_UNKNOWN, 7),
+            new Pet(4, "Bella", "Beagle", PetEntry.GENDER_MALE, 10)
+    };
+
+    private static final int[] GENDERS = {
+            PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE
+    };
+
+    @Parameterized.Parameters(name = "from version {0}")
+    public static List<Object[]> versions() {
+        List<Object[]> versions = new ArrayList<Object[]>();
+        for (int version = 1; version < PetDbHelper.DATABASE_VERSION; version++) {
+            versions.add(new Object[] { version });
+        }
+        return versions;
+    }
+
+    private final int mFromVersion;
+
+    private Context mContext;
+
+    public PetMigrationTest(int fromVersion) {
+        mFromVersion = fromVersion;
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(OLD_DATABASE_NAME);
+        mContext.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(OLD_DATABASE_NAME);
+        mContext.deleteDatabase(NEW_DATABASE_NAME);
+    }
+
+    @Test
+    public void upgradeKeepsSchemaAndPets() {
+        List<String> expectedSchema;
+        PetDbHelper newDbHelper = new PetDbHelper(mContext, NEW_DATABASE_NAME);
+        try {
+            expectedSchema = readSchema(newDbHelper.getWritableDatabase());
+        }
+        finally {
+            newDbHelper.close();
+        }
+
+        createOldDatabase();
+
+        PetDbHelper dbHelper = new PetDbHelper(mContext, OLD_DATABASE_NAME);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+            assertEquals(PetDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals(expectedSchema, readSchema(db));
+            assertEquals(PetCompactor.AUTO_VACUUM_INCREMENTAL,
+                    DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+
+            assertEquals(PETS.length, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME));
+            for (Pet pet : PETS) {
+                assertEquals(pet, queryPet(db, pet.getId()));
+                assertEquals(pet.getId(), searchName(db, pet.getName()));
+                assertEquals(PetChangeEntry.OPERATION_INSERT, queryLoggedOperation(db, pet.getId()));
+            }
+            assertEquals(PETS.length, DatabaseUtils.queryNumEntries(db, PetChangeEntry.TABLE_NAME));
+            assertStatsMatchPets(db);
+        }
+        finally {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void upgradedTriggersWork() {
+        createOldDatabase();
+
+        PetDbHelper dbHelper = new PetDbHelper(mContext, OLD_DATABASE_NAME);
+        try {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+            long id = db.insertOrThrow(PetEntry.TABLE_NAME, null,
+                    new Pet(Pet.NO_ID, "Luna", "Husky", PetEntry.GENDER_FEMALE, 22).toContentValues());
+            assertEquals(id, searchName(db, "Luna"));
+            assertEquals(PetChangeEntry.OPERATION_INSERT, queryLoggedOperation(db, id));
+            assertStatsMatchPets(db);
+
+            // Rex becomes the heaviest male.
+            execUpdate(db, PetEntry.COLUMN_WEIGHT + " = 35", 1);
+            assertEquals(PetChangeEntry.OPERATION_UPDATE, queryLoggedOperation(db, 1));
+            assertStatsMatchPets(db);
+
+            // Deleting Rex leaves Bella the heaviest male.
+            execUpdate(db, PetCompactor.COLUMN_DELETED_AT + " = 1000", 1);
+            assertEquals(PetChangeEntry.OPERATION_DELETE, queryLoggedOperation(db, 1));
+            assertStatsMatchPets(db);
+
+            // Restoring him logs an insert.
+            execUpdate(db, PetCompactor.COLUMN_DELETED_AT + " = 0", 1);
+            assertEquals(PetChangeEntry.OPERATION_INSERT, queryLoggedOperation(db, 1));
+            assertStatsMatchPets(db);
+
+            // Purging a deleted pet leaves the statistics alone. Never synced, nothing needs
+            // its change anymore.
+            execUpdate(db, PetCompactor.COLUMN_DELETED_AT + " = 1000", 4);
+            assertEquals(PetChangeEntry.OPERATION_DELETE, queryLoggedOperation(db, 4));
+            db.delete(PetEntry.TABLE_NAME, PetEntry._ID + " = 4", null);
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, PetChangeEntry.TABLE_NAME,
+                    PetChangeEntry.COLUMN_PET_ID + " = 4"));
+            assertEquals(-1, searchName(db, "Bella"));
+            assertStatsMatchPets(db);
+        }
+        finally {
+            dbHelper.close();
+        }
+    }
+
+    /**
+     * Creates the database as the app of the old version left it, with {@link #PETS} in it.
+     */
+    private void createOldDatabase() {
+        File file = mContext.getDatabasePath(OLD_DATABASE_NAME);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            db.beginTransaction();
+            try {
+                PetDbHelper.createSchema(db, mFromVersion);
+                for (Pet pet : PETS) {
+                    db.insertOrThrow(PetEntry.TABLE_NAME, null, pet.toContentValues());
+                }
+                db.setVersion(mFromVersion);
+                db.setTransactionSuccessful();
+            }
+            finally {
+                db.endTransaction();
+            }
+        }
+        finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Returns the tables, indexes and triggers with the SQL that created them, in name order.
+     */
+    private static List<String> readSchema(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' ORDER BY type, name", null);
+        try {
+            List<String> schema = new ArrayList<String>();
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + ": "
+                        + cursor.getString(2));
+            }
+            return schema;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private static Pet queryPet(SQLiteDatabase db, long id) {
+        Cursor cursor = db.query(PetEntry.TABLE_NAME, PetCache.COLUMNS,
+                PetEntry._ID + " = " + id + " AND " + PetCompactor.SQL_NOT_DELETED,
+                null, null, null, null);
+        try {
+            return cursor.moveToFirst() ? new PetCursorMapper(cursor).toPet() : null;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the ID of the pet the full-text index finds under the name, -1 if none.
+     */
+    private static long searchName(SQLiteDatabase db, String name) {
+        Cursor cursor = db.rawQuery("SELECT docid FROM " + PetEntry.FTS_TABLE_NAME + " WHERE "
+                + PetEntry.COLUMN_NAME + " MATCH ?", new String[] { name });
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the operation of the pet's only entry in the change log.
+     */
+    private static int queryLoggedOperation(SQLiteDatabase db, long id) {
+        Cursor cursor = db.query(PetChangeEntry.TABLE_NAME,
+                new String[] { PetChangeEntry.COLUMN_OPERATION },
+                PetChangeEntry.COLUMN_PET_ID + " = " + id, null, null, null, null);
+        try {
+            assertEquals("Changes logged for pet " + id, 1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private static void execUpdate(SQLiteDatabase db, String assignment, long id) {
+        db.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + assignment + " WHERE "
+                + PetEntry._ID + " = " + id);
+    }
+
+    /**
+     * Checks the statistics of each gender against the pets that aren't deleted.
+     */
+    private static void assertStatsMatchPets(SQLiteDatabase db) {
+        for (int gender : GENDERS) {
+            String expected = DatabaseUtils.stringForQuery(db, "SELECT COUNT(*) || ' ' || "
+                    + "IFNULL(SUM(" + PetEntry.COLUMN_WEIGHT + "), 0) || ' ' || "
+                    + "IFNULL(MAX(" + PetEntry.COLUMN_WEIGHT + "), 0) FROM " + PetEntry.TABLE_NAME
+                    + " WHERE " + PetEntry.COLUMN_GENDER + " = " + gender + " AND "
+                    + PetCompactor.SQL_NOT_DELETED, null);
+            String stats = DatabaseUtils.stringForQuery(db, "SELECT "
+                    + PetStatsEntry.COLUMN_PET_COUNT + " || ' ' || "
+                    + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " || ' ' || "
+                    + PetStatsEntry.COLUMN_MAX_WEIGHT + " FROM " + PetStatsEntry.TABLE_NAME
+                    + " WHERE " + PetEntry.COLUMN_GENDER + " = " + gender, null);
+            assertEquals("Statistics of gender " + gender, expected, stats);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Explains the page queries of the catalog for every sort order, with and without each filter,
+ * as the "Debug" screen does, and checks that each one reads the index made for it in order:
+ * no step reads the whole table or sorts the rows in a temporary b-tree.
+ */
+@RunWith(Parameterized.class)
+public class PetQueryPlanTest {
+
+    private static final String DATABASE_NAME = "query_plan_test.db";
+
+    private static final String[] SORTS = {
+            PetEntry.SORT_ID, PetEntry.SORT_NAME, PetEntry.SORT_BREED, PetEntry.SORT_WEIGHT
+    };
+
+    /** Last pet of the previous page, for the pages in the middle of the catalog */
+    private static final Pet AFTER = new Pet(1000, "Max", "Beagle", PetEntry.GENDER_MALE, 10);
+
+    private static final int PAGE_SIZE = 50;
+
+    @Parameterized.Parameters(name = "sort {0}, gender {1}, weight {2} to {3}")
+    public static List<Object[]> queries() {
+        List<Object[]> queries = new ArrayList<Object[]>();
+        for (String sort : SORTS) {
+            for (int gender : new int[] { PetListQuery.ANY_GENDER, PetEntry.GENDER_MALE }) {
+                queries.add(new Object[] { sort, gender,
+                        PetListQuery.NO_WEIGHT_LIMIT, PetListQuery.NO_WEIGHT_LIMIT });
+                queries.add(new Object[] { sort, gender, 5, 20 });
+            }
+        }
+        return queries;
+    }
+
+    private final PetListQuery mQuery;
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private PetProvider mProvider;
+
+    public PetQueryPlanTest(String sort, int gender, int minWeight, int maxWeight) {
+        mQuery = new PetListQuery(sort, gender, minWeight, maxWeight);
+    }
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        mProvider = new PetProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void firstPageReadsIndexInOrder() {
+        assertReadsIndexInOrder(mQuery.buildPageUri(null, PAGE_SIZE));
+    }
+
+    @Test
+    public void middlePageReadsIndexInOrder() {
+        assertReadsIndexInOrder(mQuery.buildPageUri(AFTER, PAGE_SIZE));
+    }
+
+    private void assertReadsIndexInOrder(Uri uri) {
+        Bundle result = mProvider.call(PetContract.METHOD_QUERY_PLAN, uri.toString(), null);
+        assertNotNull(result);
+        String[] steps = result.getStringArray(PetContract.KEY_QUERY_PLAN);
+        assertNotNull(steps);
+        String plan = uri.getEncodedQuery() + " " + Arrays.toString(steps);
+
+        for (String step : steps) {
+            assertFalse("Reads every pet: " + plan, step.contains("SCAN") && !step.contains("USING"));
+            assertFalse("Sorts the pets: " + plan, step.contains("TEMP B-TREE"));
+        }
+
+        Pattern expected = Pattern.compile(getExpectedIndex());
+        boolean found = false;
+        for (String step : steps) {
+            found |= expected.matcher(step).find();
+        }
+        assertTrue("Doesn't read " + expected + ": " + plan, found);
+    }
+
+    /**
+     * Returns a pattern matching the index the query should read: the one on the sort column,
+     * behind the gender when the pets are filtered by gender.
+     */
+    private String getExpectedIndex() {
+        String sort = mQuery.getSort();
+        boolean byGender = mQuery.getGender() != PetListQuery.ANY_GENDER;
+        if (PetEntry.SORT_ID.equals(sort)) {
+            return byGender ? "INDEX pets_gender_index\\b" : "INTEGER PRIMARY KEY";
+        }
+        return "INDEX pets_" + (byGender ? "gender_" : "") + sort + "_index\\b";
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetShelterEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Uses a shelter in short bursts, as the app does, with a short idle timeout so it's closed
+ * between them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetSheltersTest {
+
+    private static final long SHELTER_ID = 9001;
+
+    private static final long IDLE_TIMEOUT_MILLIS = 200;
+
+    /** Longest wait for the shelters' background work */
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private static final long SEED = 24;
+    private static final int COUNT = 50;
+
+    private Context mContext;
+    private PetShelters mShelters;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(PetShelters.getDatabaseName(SHELTER_ID));
+        mShelters = new PetShelters(mContext, IDLE_TIMEOUT_MILLIS);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        awaitClosed();
+        mContext.deleteDatabase(PetShelters.getDatabaseName(SHELTER_ID));
+    }
+
+    @Test
+    public void deletedPetsPurgedOnceShelterClosed() throws InterruptedException {
+        Uri pets = PetShelterEntry.buildPetsUri(SHELTER_ID);
+        ContentValues[] values = new ContentValues[COUNT];
+        new PetGenerator(SEED).next(values);
+        assertEquals(COUNT, mShelters.bulkInsert(pets, values));
+        assertEquals(COUNT, mShelters.delete(pets, null, null));
+
+        // Closed long before the deleted pets could be purged
+        awaitClosed();
+        assertEquals(COUNT, countRows());
+
+        // The restore window passes while the shelter is closed, then it's used again.
+        PetDbHelper dbHelper = openShelterDatabase();
+        try {
+            dbHelper.getWritableDatabase().execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET "
+                    + PetCompactor.COLUMN_DELETED_AT + " = " + PetCompactor.COLUMN_DELETED_AT
+                    + " - " + PetContract.RESTORE_WINDOW_MILLIS);
+        }
+        finally {
+            dbHelper.close();
+        }
+        Cursor cursor = mShelters.query(pets, null, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (countRows() != 0) {
+            assertTrue("Deleted pets not purged", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(IDLE_TIMEOUT_MILLIS);
+        }
+    }
+
+    private void awaitClosed() throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_MILLIS;
+        while (mShelters.isOpen(SHELTER_ID)) {
+            assertTrue("Shelter still open", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(IDLE_TIMEOUT_MILLIS);
+        }
+    }
+
+    /** Returns the number of pets in the shelter's database, deleted or not */
+    private long countRows() {
+        PetDbHelper dbHelper = openShelterDatabase();
+        try {
+            return DatabaseUtils.queryNumEntries(dbHelper.getWritableDatabase(),
+                    PetEntry.TABLE_NAME);
+        }
+        finally {
+            dbHelper.close();
+        }
+    }
+
+    private PetDbHelper openShelterDatabase() {
+        return new PetDbHelper(mContext, PetShelters.getDatabaseName(SHELTER_ID));
+    }
+}
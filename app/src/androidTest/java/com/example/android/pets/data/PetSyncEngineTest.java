@@ -0,0 +1,293 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetSyncServer.PushResult;
+import com.example.android.pets.data.PetSyncServer.Record;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Syncs a scratch database with an {@link InMemoryPetSyncServer}, through a provider on that
+ * database, and checks what ends up on both sides. Another shelter is played by writing to the
+ * server directly.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetSyncEngineTest {
+
+    private static final String DATABASE_NAME = "sync_test.db";
+    private static final String STATE_NAME = "sync_test_state";
+
+    private static final long SEED = 16;
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+    private PetProvider mProvider;
+    private MockContentResolver mResolver;
+    private SharedPreferences mState;
+    private InMemoryPetSyncServer mServer;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        mProvider = new PetProvider(mDbHelper);
+        mProvider.attachInfo(mContext, null);
+        mResolver = new MockContentResolver();
+        mResolver.addProvider(PetContract.CONTENT_AUTHORITY, mProvider);
+        mState = mContext.getSharedPreferences(STATE_NAME, Context.MODE_PRIVATE);
+        mState.edit().clear().commit();
+        mServer = new InMemoryPetSyncServer();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mState.edit().clear().commit();
+    }
+
+    @Test
+    public void pushSendsLocalChanges() throws IOException {
+        long rex = insertPet(new Pet(Pet.NO_ID, "Rex", "Labrador", PetEntry.GENDER_MALE, 30));
+        insertPet(new Pet(Pet.NO_ID, "Mittens", null, PetEntry.GENDER_FEMALE, 4));
+        long toto = insertPet(new Pet(Pet.NO_ID, "Toto", "Terrier", PetEntry.GENDER_UNKNOWN, 7));
+
+        PetSyncEngine.Result result = newEngine(mServer).sync();
+        assertEquals(3, result.rowsPushed);
+        assertEquals(0, result.conflicts);
+        assertEquals(0, result.rowsPulled);
+        assertEquals(queryLocalPets(), queryServerPets());
+
+        // Only the changes since are pushed.
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_WEIGHT, 35);
+        mResolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, rex), values, null, null);
+        mResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, toto), null, null);
+        long pushed = mServer.getRecordsPushed();
+
+        result = newEngine(mServer).sync();
+        assertEquals(2, result.rowsPushed);
+        assertEquals(pushed + 2, mServer.getRecordsPushed());
+        assertEquals(queryLocalPets(), queryServerPets());
+    }
+
+    @Test
+    public void pullWritesServerChanges() throws IOException {
+        Record luna = pushRemote(null,
+                new Pet(Pet.NO_ID, "Luna", "Husky", PetEntry.GENDER_FEMALE, 22));
+        Record max = pushRemote(null,
+                new Pet(Pet.NO_ID, "Max", "Beagle", PetEntry.GENDER_MALE, 10));
+
+        PetSyncEngine.Result result = newEngine(mServer).sync();
+        assertEquals(0, result.rowsPushed);
+        assertEquals(2, result.rowsPulled);
+        assertEquals(queryServerPets(), queryLocalPets());
+
+        pushRemote(luna, new Pet(Pet.NO_ID, "Luna", "Husky", PetEntry.GENDER_FEMALE, 24));
+        pushRemote(max, null);
+
+        result = newEngine(mServer).sync();
+        assertEquals(2, result.rowsPulled);
+        assertEquals(queryServerPets(), queryLocalPets());
+        assertEquals(1, queryLocalPets().size());
+
+        // The pulled changes aren't pushed back.
+        long pushed = mServer.getRecordsPushed();
+        result = newEngine(mServer).sync();
+        assertEquals(0, result.rowsPushed);
+        assertEquals(0, result.rowsPulled);
+        assertEquals(pushed, mServer.getRecordsPushed());
+    }
+
+    @Test
+    public void conflictKeepsFirstWrite() throws IOException {
+        long rex = insertPet(new Pet(Pet.NO_ID, "Rex", "Labrador", PetEntry.GENDER_MALE, 30));
+        newEngine(mServer).sync();
+        Record synced = mServer.getPets().get(0);
+
+        // Another shelter changes Rex first, then this one.
+        Pet first = new Pet(Pet.NO_ID, "Rex", "Labrador", PetEntry.GENDER_MALE, 40);
+        pushRemote(synced, first);
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_WEIGHT, 35);
+        mResolver.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, rex), values, null, null);
+
+        PetSyncEngine.Result result = newEngine(mServer).sync();
+        assertEquals(0, result.rowsPushed);
+        assertEquals(1, result.conflicts);
+        assertEquals(Collections.singleton(first), queryLocalPets());
+        assertEquals(Collections.singleton(first), queryServerPets());
+
+        // The server's pet isn't sent back.
+        long pushed = mServer.getRecordsPushed();
+        result = newEngine(mServer).sync();
+        assertEquals(0, result.rowsPushed);
+        assertEquals(pushed, mServer.getRecordsPushed());
+    }
+
+    @Test
+    public void cancelledSyncResumesFromSavedPosition() throws IOException {
+        int count = PetSyncEngine.BATCH_SIZE * 2 + PetSyncEngine.BATCH_SIZE / 2;
+        new PetGenerator(SEED).insert(mResolver, PetEntry.CONTENT_URI, count, null);
+
+        // Cancelled as the first batch is pushed, the sync stops after it.
+        CancellingServer cancelling = new CancellingServer(mServer);
+        PetSyncEngine engine = newEngine(cancelling);
+        cancelling.mEngine = engine;
+        assertNull(engine.sync());
+        assertEquals(PetSyncEngine.BATCH_SIZE, mServer.getPets().size());
+
+        // A new engine, as after the app restarted, pushes the rest and nothing twice.
+        PetSyncEngine.Result result = newEngine(mServer).sync();
+        assertNotNull(result);
+        assertEquals(count - PetSyncEngine.BATCH_SIZE, result.rowsPushed);
+        assertEquals(count, mServer.getRecordsPushed());
+        assertEquals(queryLocalPets(), queryServerPets());
+
+        // The pets pulled back are the ones pushed, nothing is duplicated.
+        assertEquals(count, queryLocalPets().size());
+        assertEquals(0, result.rowsPulled);
+    }
+
+    @Test
+    public void purgedPetChangeKeptUntilPushed() throws IOException {
+        long rex = insertPet(new Pet(Pet.NO_ID, "Rex", "Labrador", PetEntry.GENDER_MALE, 30));
+        long toto = insertPet(new Pet(Pet.NO_ID, "Toto", "Terrier", PetEntry.GENDER_UNKNOWN, 7));
+        newEngine(mServer).sync();
+
+        // Toto is deleted and purged before the next sync: the delete still reaches the server.
+        mResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, toto), null, null);
+        purge(toto);
+        assertEquals(1, countLoggedChanges(toto));
+
+        PetSyncEngine.Result result = newEngine(mServer).sync();
+        assertEquals(1, result.rowsPushed);
+        assertEquals(queryLocalPets(), queryServerPets());
+        assertEquals(0, countLoggedChanges(toto));
+
+        // Read by the sync already, a purged pet's change goes with it.
+        mResolver.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, rex), null, null);
+        newEngine(mServer).sync();
+        assertEquals(1, countLoggedChanges(rex));
+        purge(rex);
+        assertEquals(0, countLoggedChanges(rex));
+    }
+
+    private PetSyncEngine newEngine(PetSyncServer server) {
+        return new PetSyncEngine(mResolver, mState, mDbHelper, server);
+    }
+
+    private long insertPet(Pet pet) {
+        Uri uri = mResolver.insert(PetEntry.CONTENT_URI, pet.toContentValues());
+        assertNotNull(uri);
+        return ContentUris.parseId(uri);
+    }
+
+    /**
+     * Writes to the server as another shelter would.
+     *
+     * @param current the pet on the server, or null for a new pet
+     * @param pet     its new state, or null to delete it
+     */
+    private Record pushRemote(Record current, Pet pet) throws IOException {
+        Record write = current != null
+                ? new Record(current.remoteId, current.version, pet)
+                : new Record(UUID.randomUUID().toString(), 0, pet);
+        PushResult result = mServer.push(Collections.singletonList(write)).get(0);
+        assertTrue(result.accepted);
+        return result.record;
+    }
+
+    /** Purges the deleted pet as {@link PetCompactor} does once it can't be restored */
+    private void purge(long id) {
+        assertEquals(1, mDbHelper.getWritableDatabase().delete(PetEntry.TABLE_NAME,
+                PetEntry._ID + " = " + id + " AND " + PetCompactor.COLUMN_DELETED_AT + " != 0",
+                null));
+    }
+
+    private long countLoggedChanges(long id) {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getWritableDatabase(),
+                PetChangeEntry.TABLE_NAME, PetChangeEntry.COLUMN_PET_ID + " = " + id);
+    }
+
+    /** Returns the pets that aren't deleted, without their IDs */
+    private Set<Pet> queryLocalPets() {
+        Cursor cursor = mResolver.query(PetEntry.CONTENT_URI, PetCache.COLUMNS, null, null, null);
+        assertNotNull(cursor);
+        try {
+            Set<Pet> pets = new HashSet<Pet>();
+            PetCursorMapper mapper = new PetCursorMapper(cursor);
+            while (cursor.moveToNext()) {
+                Pet pet = mapper.toPet();
+                pets.add(new Pet(Pet.NO_ID, pet.getName(), pet.getBreed(), pet.getGender(),
+                        pet.getWeight()));
+            }
+            assertEquals("Duplicate pets", cursor.getCount(), pets.size());
+            return pets;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private Set<Pet> queryServerPets() {
+        Set<Pet> pets = new HashSet<Pet>();
+        for (Record record : mServer.getPets()) {
+            pets.add(record.pet);
+        }
+        return pets;
+    }
+
+    /**
+     * Cancels the engine when it pushes its first batch.
+     */
+    private static class CancellingServer implements PetSyncServer {
+
+        private final PetSyncServer mServer;
+        PetSyncEngine mEngine;
+
+        CancellingServer(PetSyncServer server) {
+            mServer = server;
+        }
+
+        @Override
+        public List<PushResult> push(List<Record> writes) throws IOException {
+            mEngine.cancel();
+            return mServer.push(writes);
+        }
+
+        @Override
+        public List<Record> pull(long sinceVersion, int limit) throws IOException {
+            return mServer.pull(sinceVersion, limit);
+        }
+    }
+}
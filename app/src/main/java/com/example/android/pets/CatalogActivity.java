@@ -17,8 +17,10 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.app.ProgressDialog;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -28,28 +30,106 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.widget.Toast;
 
-import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetCursorMapper;
+import com.example.android.pets.data.PetGenerator;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetListQuery;
+import com.example.android.pets.data.PetWriteQueue;
 
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Displays list of pets that were entered and stored in the app.
+ *
+ * The list is loaded one page at a time as the user scrolls. Every page has its own loader, with
+ * ID {@link #PET_LOADER} + page index, and the pets of the loaded pages are shown as one list.
+ * The sort order and filters picked in the menu are applied by the provider, see
+ * {@link PetListQuery}. While the user types in the search box, the search results are shown
+ * instead.
  */
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
     private static final int PET_LOADER = 0;
+    private static final int SEARCH_LOADER = -1;
+
+    private static final int REQUEST_IMPORT_FILE = 1;
+
+    /** Number of pets in a page */
+    private static final int PAGE_SIZE = 50;
+
+    /** How close to the end of the list the user scrolls before the next page is loaded */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /** Most search results shown at once */
+    private static final int SEARCH_LIMIT = 100;
+
+    /** Number of pets inserted by the dummy data option */
+    private static final int DUMMY_DATA_COUNT = 20;
+
+    private static final String ARG_AFTER_PET = "after_pet";
+    private static final String ARG_QUERY = "query";
+    private static final String STATE_LIST_QUERY = "list_query";
+    private static final String STATE_PAGE_STARTS = "page_starts";
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    private PetAdapter mAdapter;
+    private RecyclerView mRecyclerView;
+    private LinearLayoutManager mLayoutManager;
+    private View mEmptyView;
+
+    /** Sort order and filters of the pages */
+    private PetListQuery mListQuery = new PetListQuery();
+
+    /** Pet after which each page starts, null for the first page */
+    private List<Pet> mPageStarts = new ArrayList<Pet>();
 
-    private PetDbHelper mPetDbHelper;
-    private PetCursorAdapter mAdapter;
-    private ListView mListView;
+    /** Pets of each page, null while the page is loading */
+    private List<List<Pet>> mPages = new ArrayList<List<Pet>>();
+
+    /** Text in the search box, null when not searching */
+    private String mSearchQuery;
+
+    /** Running "delete all" task, kept across configuration changes */
+    private PurgePetsTask mPurgeTask;
+    private ProgressDialog mPurgeDialog;
+
+    private final PurgePetsTask.Listener mPurgeListener = new PurgePetsTask.Listener() {
+        @Override
+        public void onPurgeProgress(long rowsDeleted, long rowsTotal) {
+            mPurgeDialog.setMax((int) rowsTotal);
+            mPurgeDialog.setProgress((int) rowsDeleted);
+        }
+
+        @Override
+        public void onPurgeFinished(long rowsDeleted, boolean cancelled) {
+            long deletedSince = mPurgeTask.getStartedAt();
+            mPurgeTask = null;
+            mPurgeDialog.dismiss();
+            mPurgeDialog = null;
+
+            if (rowsDeleted > 0) {
+                showUndoDelete(rowsDeleted, deletedSince);
+            }
+            else if (!cancelled) {
+                Toast.makeText(CatalogActivity.this, R.string.delete_all_fail, Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -66,25 +146,293 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        mListView = (ListView) findViewById(R.id.list_view_pet);
-        View emptyTextView = findViewById(R.id.empty_view);
-        mListView.setEmptyView(emptyTextView);
-        mAdapter = new PetCursorAdapter(this, null);
-        mListView.setAdapter(mAdapter);
+        mRecyclerView = (RecyclerView) findViewById(R.id.list_view_pet);
+        mEmptyView = findViewById(R.id.empty_view);
+        mLayoutManager = new LinearLayoutManager(this);
+        mRecyclerView.setLayoutManager(mLayoutManager);
+
+        mAdapter = new PetAdapter(PetThumbnailLoader.getInstance(this),
+                new PetAdapter.OnPetClickListener() {
+                    @Override
+                    public void onPetClick(Pet pet) {
 
-        mListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+                        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                        Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, pet.getId());
+                        intent.setData(uri);
+                        startActivity(intent);
+
+                    }
+                });
+        mRecyclerView.setAdapter(mAdapter);
+
+        // Show the empty view whenever the list is empty
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onChanged() {
+                updateEmptyView();
+            }
 
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-                Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
-                intent.setData(uri);
-                startActivity(intent);
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                if (mSearchQuery == null && mLayoutManager.findLastVisibleItemPosition()
+                        >= mAdapter.getItemCount() - PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        // Reconnect to the pages that were loaded before a configuration change,
+        // or start with the first page.
+        if (savedInstanceState != null) {
+            mListQuery = savedInstanceState.getParcelable(STATE_LIST_QUERY);
+        }
+        addPage(null, false);
+        if (savedInstanceState != null) {
+            List<Pet> pageStarts = savedInstanceState.getParcelableArrayList(STATE_PAGE_STARTS);
+            for (Pet after : pageStarts) {
+                addPage(after, false);
+            }
+            search(savedInstanceState.getString(STATE_SEARCH_QUERY));
+        }
+
+        // Show the progress of a "delete all" started before a configuration change
+        mPurgeTask = (PurgePetsTask) getLastCustomNonConfigurationInstance();
+        if (mPurgeTask != null) {
+            showPurgeDialog();
+            mPurgeTask.setListener(mPurgeListener);
+        }
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mPurgeTask;
+    }
+
+    @Override
+    protected void onDestroy() {
+        // A running "delete all" carries on, the next activity picks it up.
+        if (mPurgeTask != null) {
+            mPurgeTask.setListener(null);
+        }
+        if (mPurgeDialog != null) {
+            mPurgeDialog.dismiss();
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_LIST_QUERY, mListQuery);
+        // The first page starts at the top, only the others are saved.
+        outState.putParcelableArrayList(STATE_PAGE_STARTS,
+                new ArrayList<Pet>(mPageStarts.subList(1, mPageStarts.size())));
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+    }
+
+    /**
+     * Shows the pets matching the given text, or all the pets if it's empty.
+     */
+    private void search(String query) {
+        if (TextUtils.isEmpty(query)) {
+            if (mSearchQuery != null) {
+                mSearchQuery = null;
+                showPages();
+                getLoaderManager().destroyLoader(SEARCH_LOADER);
+            }
+            return;
+        }
+
+        if (query.equals(mSearchQuery)) {
+            return;
+        }
+
+        boolean wasSearching = mSearchQuery != null;
+        mSearchQuery = query;
+
+        Bundle args = new Bundle();
+        args.putString(ARG_QUERY, query);
+        if (wasSearching) {
+            getLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+        }
+        else {
+            getLoaderManager().initLoader(SEARCH_LOADER, args, this);
+        }
+    }
+
+    /**
+     * Loads the page after the last one, unless it's still loading or it was the last page.
+     */
+    private void loadNextPage() {
+        List<Pet> lastPage = mPages.get(mPages.size() - 1);
+        if (lastPage == null || lastPage.size() < PAGE_SIZE) {
+            return;
+        }
+
+        // Restart instead of init, a loader with the same ID may be left from a dropped page.
+        addPage(getLastPet(lastPage), true);
+    }
+
+    /**
+     * Adds a page at the end of the list and starts loading it.
+     *
+     * @param after   pet after which the page starts, null for the first page
+     * @param restart whether to discard an existing loader for the page instead of reusing it
+     */
+    private void addPage(Pet after, boolean restart) {
+        Bundle args = new Bundle();
+        args.putParcelable(ARG_AFTER_PET, after);
+
+        int page = mPageStarts.size();
+        mPageStarts.add(after);
+        mPages.add(null);
+
+        if (restart) {
+            getLoaderManager().restartLoader(PET_LOADER + page, args, this);
+        }
+        else {
+            getLoaderManager().initLoader(PET_LOADER + page, args, this);
+        }
+    }
+
+    private static Pet getLastPet(List<Pet> page) {
+        return page.get(page.size() - 1);
+    }
+
+    /**
+     * Shows the pets in the given order and filters, reloading the list from the first page.
+     */
+    private void setListQuery(PetListQuery query) {
+        if (query.equals(mListQuery)) {
+            return;
+        }
+        mListQuery = query;
+
+        for (int i = 0; i < mPages.size(); i++) {
+            getLoaderManager().destroyLoader(PET_LOADER + i);
+        }
+        mPageStarts.clear();
+        mPages.clear();
+        addPage(null, true);
+        showPages();
+        invalidateOptionsMenu();
+    }
 
+    /**
+     * Asks for the weight range of the pets to show. An empty field leaves that end open.
+     */
+    private void showWeightRangeDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_weight_range, null);
+        final EditText minWeightEditText = (EditText) view.findViewById(R.id.edit_min_weight);
+        final EditText maxWeightEditText = (EditText) view.findViewById(R.id.edit_max_weight);
+        if (mListQuery.getMinWeight() != PetListQuery.NO_WEIGHT_LIMIT) {
+            minWeightEditText.setText(String.valueOf(mListQuery.getMinWeight()));
+        }
+        if (mListQuery.getMaxWeight() != PetListQuery.NO_WEIGHT_LIMIT) {
+            maxWeightEditText.setText(String.valueOf(mListQuery.getMaxWeight()));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_filter_weight);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                setListQuery(mListQuery.withWeightRange(readWeight(minWeightEditText),
+                        readWeight(maxWeightEditText)));
+            }
+        });
+        builder.setNeutralButton(R.string.clear, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                setListQuery(mListQuery.withWeightRange(PetListQuery.NO_WEIGHT_LIMIT,
+                        PetListQuery.NO_WEIGHT_LIMIT));
             }
         });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    private static int readWeight(EditText editText) {
+        String text = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(text)) {
+            return PetListQuery.NO_WEIGHT_LIMIT;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return PetListQuery.NO_WEIGHT_LIMIT;
+        }
+    }
+
+    /**
+     * Copies the pets out of a loaded cursor. Pages and search results are small and already
+     * in memory, so this is cheap enough for the main thread, and the list can then be compared
+     * with the one on screen in the background without touching the cursor.
+     */
+    private static List<Pet> readPets(Cursor cursor) {
+        List<Pet> pets = new ArrayList<Pet>(cursor.getCount());
+        PetCursorMapper mapper = new PetCursorMapper(cursor);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            pets.add(mapper.toPet());
+        }
+        return pets;
+    }
+
+    private void updateEmptyView() {
+        boolean empty = mAdapter.getItemCount() == 0;
+        mEmptyView.setVisibility(empty ? View.VISIBLE : View.GONE);
+        mRecyclerView.setVisibility(empty ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Shows all the loaded pages, up to the first one that is still loading.
+     */
+    private void showPages() {
+        if (mSearchQuery != null) {
+            return;
+        }
+
+        List<Pet> pets = new ArrayList<Pet>();
+        for (List<Pet> page : mPages) {
+            if (page == null) {
+                break;
+            }
+            pets.addAll(page);
+        }
+        mAdapter.submitList(pets);
+    }
+
+    /**
+     * Drops all the pages after the given one. Used when a page reloads and no longer ends where
+     * the next page starts, for example after a delete; they're loaded again as the user scrolls.
+     */
+    private void dropPagesAfter(int page) {
+        int pageCount = mPages.size();
+        if (page + 1 >= pageCount) {
+            return;
+        }
+
+        mPageStarts.subList(page + 1, pageCount).clear();
+        mPages.subList(page + 1, pageCount).clear();
 
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+        for (int i = page + 1; i < pageCount; i++) {
+            getLoaderManager().destroyLoader(PET_LOADER + i);
+        }
     }
 
     @Override
@@ -92,18 +440,112 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        menu.findItem(R.id.action_debug).setVisible(BuildConfig.DEBUG);
+
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (mSearchQuery != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Search as the user types
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        // Check the current sort order and gender filter
+        String sort = mListQuery.getSort();
+        if (PetEntry.SORT_NAME.equals(sort)) {
+            menu.findItem(R.id.sort_name).setChecked(true);
+        } else if (PetEntry.SORT_BREED.equals(sort)) {
+            menu.findItem(R.id.sort_breed).setChecked(true);
+        } else if (PetEntry.SORT_WEIGHT.equals(sort)) {
+            menu.findItem(R.id.sort_weight).setChecked(true);
+        } else {
+            menu.findItem(R.id.sort_added).setChecked(true);
+        }
+
+        switch (mListQuery.getGender()) {
+            case PetEntry.GENDER_UNKNOWN:
+                menu.findItem(R.id.gender_unknown).setChecked(true);
+                break;
+            case PetEntry.GENDER_MALE:
+                menu.findItem(R.id.gender_male).setChecked(true);
+                break;
+            case PetEntry.GENDER_FEMALE:
+                menu.findItem(R.id.gender_female).setChecked(true);
+                break;
+            default:
+                menu.findItem(R.id.gender_any).setChecked(true);
+                break;
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort by" options
+            case R.id.sort_added:
+                setListQuery(mListQuery.withSort(PetEntry.SORT_ID));
+                return true;
+            case R.id.sort_name:
+                setListQuery(mListQuery.withSort(PetEntry.SORT_NAME));
+                return true;
+            case R.id.sort_breed:
+                setListQuery(mListQuery.withSort(PetEntry.SORT_BREED));
+                return true;
+            case R.id.sort_weight:
+                setListQuery(mListQuery.withSort(PetEntry.SORT_WEIGHT));
+                return true;
+            // Respond to a click on one of the "Gender" options
+            case R.id.gender_any:
+                setListQuery(mListQuery.withGender(PetListQuery.ANY_GENDER));
+                return true;
+            case R.id.gender_unknown:
+                setListQuery(mListQuery.withGender(PetEntry.GENDER_UNKNOWN));
+                return true;
+            case R.id.gender_male:
+                setListQuery(mListQuery.withGender(PetEntry.GENDER_MALE));
+                return true;
+            case R.id.gender_female:
+                setListQuery(mListQuery.withGender(PetEntry.GENDER_FEMALE));
+                return true;
+            // Respond to a click on the "Weight range" menu option
+            case R.id.action_filter_weight:
+                showWeightRangeDialog();
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
-                // Do nothing for now
-                // inserDummyData();
-                insertPet();
+                insertDummyData();
+                return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import:
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(Intent.createChooser(intent, getString(R.string.import_choose_file)),
+                        REQUEST_IMPORT_FILE);
+                return true;
+            // Respond to a click on the "Debug" menu option, debug builds only
+            case R.id.action_debug:
+                startActivity(new Intent(this, DebugActivity.class));
                 return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
@@ -114,45 +556,125 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         return super.onOptionsItemSelected(item);
     }
 
-    private void insertPet() {
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_IMPORT_FILE) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                PetImportService.startImport(this, data.getData());
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Inserts a few made up pets, different ones each time. Larger datasets are made from the
+     * debug screen.
+     */
+    private void insertDummyData() {
 
-        ContentValues values = new ContentValues();
-        values.put(PetEntry.COLUMN_NAME, "Toto");
-        values.put(PetEntry.COLUMN_BREED, "Terrier");
-        values.put(PetEntry.COLUMN_GENDER, PetEntry.GENDER_MALE);
-        values.put(PetEntry.COLUMN_WEIGHT, 7);
+        ContentValues[] values = new ContentValues[DUMMY_DATA_COUNT];
+        new PetGenerator(System.currentTimeMillis()).next(values);
 
-        Uri petUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        // Off the main thread, the list picks the new pets up when they're inserted.
+        PetWriteQueue.getInstance(this).bulkInsert(PetEntry.CONTENT_URI, values, null);
 
     }
 
 
+    /**
+     * Deletes every pet in the background, in small chunks, with a cancelable progress dialog.
+     */
     private void deleteAllEntries() {
 
-        int rowsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null,null);
-
-        if(rowsDeleted > 0) {
-            Toast.makeText(this, "Total of entries deleted: " + rowsDeleted, Toast.LENGTH_SHORT);
-        }
-        else {
-            Toast.makeText(this, "Unable to delete!", Toast.LENGTH_SHORT);
+        if (mPurgeTask != null) {
+            return;
         }
 
+        mPurgeTask = new PurgePetsTask(getContentResolver());
+        mPurgeTask.setListener(mPurgeListener);
+        showPurgeDialog();
+        mPurgeTask.execute();
+    }
 
+    /**
+     * Tells how many pets were deleted, and offers to bring them back.
+     */
+    private void showUndoDelete(long rowsDeleted, final long deletedSince) {
+        Snackbar.make(mRecyclerView, getString(R.string.delete_all_done, rowsDeleted),
+                Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        final Context appContext = getApplicationContext();
+                        PetWriteQueue.getInstance(appContext).restore(deletedSince,
+                                new PetWriteQueue.Callback<Integer>() {
+                                    @Override
+                                    public void onComplete(Integer rowsRestored) {
+                                        if (rowsRestored > 0) {
+                                            Toast.makeText(appContext, appContext.getString(
+                                                    R.string.restore_done, rowsRestored),
+                                                    Toast.LENGTH_SHORT).show();
+                                        }
+                                        else {
+                                            Toast.makeText(appContext, R.string.restore_fail,
+                                                    Toast.LENGTH_SHORT).show();
+                                        }
+                                    }
+                                });
+                    }
+                })
+                .show();
+    }
+
+    private void showPurgeDialog() {
+        mPurgeDialog = new ProgressDialog(this);
+        mPurgeDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mPurgeDialog.setMessage(getString(R.string.delete_all_progress));
+        mPurgeDialog.setCancelable(false);
+        mPurgeDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialogInterface, int i) {
+                        // Stops after the current chunk, the pets deleted so far stay deleted.
+                        if (mPurgeTask != null) {
+                            mPurgeTask.cancel(false);
+                        }
+                    }
+                });
+        mPurgeDialog.show();
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
 
         // Define a projection that specifies the columns from the table we care about.
+        // The gender and weight complete the pets, which tell where the next page starts.
         String[] projection = {
                 PetEntry._ID,
                 PetEntry.COLUMN_NAME,
-                PetEntry.COLUMN_BREED
+                PetEntry.COLUMN_BREED,
+                PetEntry.COLUMN_GENDER,
+                PetEntry.COLUMN_WEIGHT,
+                PetEntry.COLUMN_PHOTO
         };
 
+        if (i == SEARCH_LOADER) {
+            return new CursorLoader(this,
+                    PetEntry.buildSearchUri(bundle.getString(ARG_QUERY)).buildUpon()
+                            .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT,
+                                    String.valueOf(SEARCH_LIMIT))
+                            .build(),
+                    projection,
+                    null,
+                    null,
+                    null);
+        }
+
+        Pet after = bundle != null ? (Pet) bundle.getParcelable(ARG_AFTER_PET) : null;
+
         return new CursorLoader(this,
-                PetEntry.CONTENT_URI,
+                mListQuery.buildPageUri(after, PAGE_SIZE),
                 projection,
                 null,
                 null,
@@ -161,12 +683,35 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mAdapter.swapCursor(cursor);
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchQuery != null) {
+                mAdapter.submitList(readPets(cursor));
+            }
+            return;
+        }
+
+        int page = loader.getId() - PET_LOADER;
+        if (page >= mPages.size()) {
+            // The page was dropped while it was loading.
+            return;
+        }
+
+        List<Pet> pets = readPets(cursor);
+        mPages.set(page, pets);
+
+        // If the page no longer ends where the next one starts, the pages after it are stale.
+        boolean isLastPage = page == mPages.size() - 1;
+        if (!isLastPage && (pets.size() < PAGE_SIZE
+                || !getLastPet(pets).equals(mPageStarts.get(page + 1)))) {
+            dropPagesAfter(page);
+        }
+
+        showPages();
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mAdapter.swapCursor(null);
+        // The pets are copied out of the cursors, so there's nothing to release.
     }
 
     private void showDeleteAllEntriesConfirmationDialog() {
@@ -0,0 +1,236 @@
+package com.example.android.pets;
+
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.EditText;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetBenchmark;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetListQuery;
+import com.example.android.pets.data.PetMainThreadGuard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Shows the provider's cache counters and call metrics, see {@link PetContract#METHOD_METRICS},
+ * and the database calls made on the main thread, see {@link PetMainThreadGuard}. Also shows the
+ * query plans of the catalog pages, starts the benchmark and generates large datasets. Only
+ * reachable in debug builds.
+ */
+public class DebugActivity extends AppCompatActivity {
+
+    /** Sort orders whose page plans are shown */
+    private static final String[] PLAN_SORTS = {
+            PetEntry.SORT_ID, PetEntry.SORT_NAME, PetEntry.SORT_BREED, PetEntry.SORT_WEIGHT
+    };
+
+    /** Number of pets generated when none is given */
+    private static final int DEFAULT_GENERATE_COUNT = 100000;
+
+    private TextView mDebugText;
+
+    /** Query plans of the catalog pages, null until they're asked for */
+    private String mQueryPlans;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_debug);
+
+        mDebugText = (TextView) findViewById(R.id.debug_text);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showMetrics();
+    }
+
+    /**
+     * Reads the counters from the provider. They're kept in memory, so this is cheap enough for
+     * the main thread.
+     */
+    private void showMetrics() {
+        StringBuilder text = new StringBuilder();
+
+        Bundle cacheStats = getContentResolver().call(PetEntry.CONTENT_URI,
+                PetContract.METHOD_CACHE_STATS, null, null);
+        if (cacheStats != null) {
+            text.append(getString(R.string.debug_cache_stats,
+                    cacheStats.getInt(PetContract.KEY_CACHE_HITS),
+                    cacheStats.getInt(PetContract.KEY_CACHE_MISSES)));
+            text.append("\n\n");
+        }
+
+        Bundle result = getContentResolver().call(PetEntry.CONTENT_URI,
+                PetContract.METHOD_METRICS, null, null);
+        ArrayList<Bundle> metrics = result != null
+                ? result.<Bundle>getParcelableArrayList(PetContract.KEY_METRICS) : null;
+        if (metrics == null || metrics.isEmpty()) {
+            text.append(getString(R.string.debug_no_metrics));
+        } else {
+            text.append(String.format(Locale.US, "%-12s %-16s %8s %9s %9s %8s %8s %8s %9s%n",
+                    "operation", "route", "calls", "rows", "mean_us", "p50_us", "p90_us",
+                    "p99_us", "max_us"));
+            for (Bundle metric : metrics) {
+                long count = metric.getLong(PetContract.KEY_METRIC_COUNT);
+                text.append(String.format(Locale.US, "%-12s %-16s %8d %9d %9d %8d %8d %8d %9d%n",
+                        metric.getString(PetContract.KEY_METRIC_OPERATION),
+                        metric.getString(PetContract.KEY_METRIC_ROUTE),
+                        count,
+                        metric.getLong(PetContract.KEY_METRIC_ROWS),
+                        metric.getLong(PetContract.KEY_METRIC_TOTAL_MICROS) / count,
+                        metric.getLong(PetContract.KEY_METRIC_P50_MICROS),
+                        metric.getLong(PetContract.KEY_METRIC_P90_MICROS),
+                        metric.getLong(PetContract.KEY_METRIC_P99_MICROS),
+                        metric.getLong(PetContract.KEY_METRIC_MAX_MICROS)));
+            }
+        }
+
+        text.append("\n");
+        List<String> violations = PetMainThreadGuard.getViolations();
+        if (violations.isEmpty()) {
+            text.append(getString(R.string.debug_no_main_thread_violations));
+        } else {
+            text.append(getString(R.string.debug_main_thread_violations)).append('\n');
+            for (String violation : violations) {
+                text.append(violation).append('\n');
+            }
+        }
+
+        if (mQueryPlans != null) {
+            text.append('\n').append(mQueryPlans);
+        }
+
+        mDebugText.setText(text);
+    }
+
+    /**
+     * Explains a page in the middle of the catalog for every sort order, with and without each
+     * filter. A page should read an index in order, without a "TEMP B-TREE" sort.
+     */
+    private void showQueryPlans() {
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                Pet after = new Pet(1000, "Max", "Beagle", PetEntry.GENDER_MALE, 10);
+                StringBuilder plans = new StringBuilder();
+                plans.append(getString(R.string.debug_query_plans)).append('\n');
+                for (String sort : PLAN_SORTS) {
+                    for (int gender : new int[] { PetListQuery.ANY_GENDER, PetEntry.GENDER_MALE }) {
+                        for (int minWeight : new int[] { PetListQuery.NO_WEIGHT_LIMIT, 5 }) {
+                            PetListQuery query = new PetListQuery(sort, gender, minWeight,
+                                    minWeight == PetListQuery.NO_WEIGHT_LIMIT
+                                            ? PetListQuery.NO_WEIGHT_LIMIT : 20);
+                            Uri uri = query.buildPageUri(after, 50);
+                            plans.append(uri.getEncodedQuery()).append('\n');
+                            Bundle result = getContentResolver().call(PetEntry.CONTENT_URI,
+                                    PetContract.METHOD_QUERY_PLAN, uri.toString(), null);
+                            String[] steps = result != null
+                                    ? result.getStringArray(PetContract.KEY_QUERY_PLAN) : null;
+                            if (steps != null) {
+                                for (String step : steps) {
+                                    plans.append("  ").append(step).append('\n');
+                                }
+                            }
+                        }
+                    }
+                }
+                return plans.toString();
+            }
+
+            @Override
+            protected void onPostExecute(String plans) {
+                mQueryPlans = plans;
+                showMetrics();
+            }
+        }.execute();
+    }
+
+    /**
+     * Asks how many pets to generate and from which seed, then generates them in the background.
+     * Without a seed, the pets are different each time.
+     */
+    private void showGenerateDialog() {
+        View view = getLayoutInflater().inflate(R.layout.dialog_generate_pets, null);
+        final EditText countEditText = (EditText) view.findViewById(R.id.edit_pet_count);
+        final EditText seedEditText = (EditText) view.findViewById(R.id.edit_seed);
+        countEditText.setText(String.valueOf(DEFAULT_GENERATE_COUNT));
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_generate_pets);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.generate, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                int count = (int) Math.min(readNumber(countEditText, DEFAULT_GENERATE_COUNT),
+                        Integer.MAX_VALUE);
+                long seed = readNumber(seedEditText, System.currentTimeMillis());
+                PetGeneratorService.startGenerating(DebugActivity.this, count, seed);
+                Toast.makeText(DebugActivity.this, R.string.generate_started,
+                        Toast.LENGTH_LONG).show();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    private static long readNumber(EditText editText, long defaultValue) {
+        String text = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(text)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_debug, menu);
+        menu.findItem(R.id.action_main_thread_penalty_death).setChecked(
+                PetMainThreadGuard.getPenalty() == PetMainThreadGuard.PENALTY_DEATH);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh:
+                showMetrics();
+                return true;
+            case R.id.action_main_thread_penalty_death:
+                item.setChecked(!item.isChecked());
+                PetMainThreadGuard.setPenalty(item.isChecked()
+                        ? PetMainThreadGuard.PENALTY_DEATH : PetMainThreadGuard.PENALTY_LOG);
+                return true;
+            case R.id.action_query_plans:
+                showQueryPlans();
+                return true;
+            case R.id.action_benchmark:
+                PetBenchmarkService.startBenchmark(this, PetBenchmark.DEFAULT_SIZES, null);
+                Toast.makeText(this, R.string.benchmark_started, Toast.LENGTH_LONG).show();
+                return true;
+            case R.id.action_generate_pets:
+                showGenerateDialog();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -20,13 +20,17 @@ import android.app.LoaderManager;
 import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.media.ThumbnailUtils;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AppCompatActivity;
@@ -38,12 +42,19 @@ import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetCursorMapper;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetPhotos;
+import com.example.android.pets.data.PetWriteQueue;
+
+import java.io.FileNotFoundException;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -52,6 +63,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     private static final int PET_LOADER = 0;
 
+    private static final int REQUEST_PICK_PHOTO = 1;
+
+    private static final String STATE_PICKED_PHOTO = "picked_photo";
+
     private Uri mCurrentPetUri;
 
     /** EditText field to enter the pet's name */
@@ -66,6 +81,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** EditText field to enter the pet's gender */
     private Spinner mGenderSpinner;
 
+    /** ImageView showing the pet's photo, tap to choose another */
+    private ImageView mPhotoImageView;
+
+    /** Image chosen as the new photo, saved with the pet, or null to keep the current one */
+    private Uri mPickedPhotoUri;
+
     /** Boolean field to check if any change on screen has happened */
     private boolean mPetHaschanged = false;
 
@@ -97,14 +118,33 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        mPhotoImageView = (ImageView) findViewById(R.id.image_pet_photo);
 
         mNameEditText.setOnTouchListener(mTouchListener);
         mBreedEditText.setOnTouchListener(mTouchListener);
         mWeightEditText.setOnTouchListener(mTouchListener);
         mGenderSpinner.setOnTouchListener(mTouchListener);
 
+        mPhotoImageView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("image/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(Intent.createChooser(intent, getString(R.string.choose_photo)),
+                        REQUEST_PICK_PHOTO);
+            }
+        });
+
         setupSpinner();
 
+        if (savedInstanceState != null) {
+            mPickedPhotoUri = savedInstanceState.getParcelable(STATE_PICKED_PHOTO);
+            if (mPickedPhotoUri != null) {
+                showPhoto(mPickedPhotoUri);
+            }
+        }
+
         Intent intent = getIntent();
         mCurrentPetUri = intent.getData();
 
@@ -118,6 +158,53 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     }
 
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_PICKED_PHOTO, mPickedPhotoUri);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        if (requestCode == REQUEST_PICK_PHOTO) {
+            if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                mPickedPhotoUri = data.getData();
+                mPetHaschanged = true;
+                showPhoto(mPickedPhotoUri);
+            }
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Decodes the photo in the background, no larger than the view, and shows it.
+     */
+    private void showPhoto(final Uri uri) {
+        final int size = getResources().getDimensionPixelSize(R.dimen.editor_photo_size);
+        final ContentResolver resolver = getContentResolver();
+        new AsyncTask<Void, Void, Bitmap>() {
+            @Override
+            protected Bitmap doInBackground(Void... params) {
+                try {
+                    Bitmap bitmap = PetPhotos.decodeSampled(resolver, uri, size);
+                    return bitmap != null ? ThumbnailUtils.extractThumbnail(bitmap, size, size,
+                            ThumbnailUtils.OPTIONS_RECYCLE_INPUT) : null;
+                } catch (FileNotFoundException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Bitmap bitmap) {
+                // Another photo may have been chosen meanwhile
+                if (bitmap != null && (uri.equals(mPickedPhotoUri) || mPickedPhotoUri == null)) {
+                    mPhotoImageView.setImageBitmap(bitmap);
+                }
+            }
+        }.execute();
+    }
+
     /**
      * Setup the dropdown spinner that allows the user to select the gender of the pet.
      */
@@ -171,6 +258,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
+                // The save runs in the background, its result is shown once it's done.
                 savePetEntry();
                 finish();
                 return true;
@@ -216,7 +304,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         if (mCurrentPetUri == null &&
                 TextUtils.isEmpty(petBreed) && TextUtils.isEmpty(petBreed) &&
-                petGender == PetEntry.GENDER_UNKNOWN && TextUtils.isEmpty(petWeightString)) {
+                petGender == PetEntry.GENDER_UNKNOWN && TextUtils.isEmpty(petWeightString)
+                && mPickedPhotoUri == null) {
             return;
         }
 
@@ -225,38 +314,68 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             petWeight = Integer.parseInt(petWeightString);
         }
 
-        ContentValues values = new ContentValues();
-        values.put(PetEntry.COLUMN_NAME, petName);
-        values.put(PetEntry.COLUMN_BREED, petBreed);
-        values.put(PetEntry.COLUMN_GENDER, petGender);
-        values.put(PetEntry.COLUMN_WEIGHT, petWeight);
+        ContentValues values = new Pet(Pet.NO_ID, petName, petBreed, petGender, petWeight)
+                .toContentValues();
 
-        if(mCurrentPetUri == null) {
-            Uri petUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        // The activity may be gone by the time the write is done, so the toasts use the
+        // application context.
+        final Context appContext = getApplicationContext();
+        final PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
+        final Uri photoUri = mPickedPhotoUri;
 
-            if(petUri == null) {
-                Toast.makeText(EditorActivity.this,
-                        R.string.error_saving_pet, Toast.LENGTH_LONG).show();
-            }
-            else {
-                Toast.makeText(EditorActivity.this,
-                        R.string.saving_pet, Toast.LENGTH_LONG).show();
-            }
+        if(mCurrentPetUri == null) {
+            writeQueue.insert(PetEntry.CONTENT_URI, values, new PetWriteQueue.Callback<Uri>() {
+                @Override
+                public void onComplete(Uri petUri) {
+                    if(petUri == null) {
+                        Toast.makeText(appContext,
+                                R.string.error_saving_pet, Toast.LENGTH_LONG).show();
+                    }
+                    else {
+                        Toast.makeText(appContext,
+                                R.string.saving_pet, Toast.LENGTH_LONG).show();
+                        if (photoUri != null) {
+                            savePhoto(writeQueue, petUri, photoUri, appContext);
+                        }
+                    }
+                }
+            });
         }
         else {
-            int updatedRows = getContentResolver().update(mCurrentPetUri, values, null, null);
-
-            if(updatedRows > 0) {
-                Toast.makeText(EditorActivity.this, R.string.updating_pet, Toast.LENGTH_LONG).show();
-            }
-            else {
-                Toast.makeText(EditorActivity.this,
-                        R.string.error_updating_pet, Toast.LENGTH_LONG).show();
+            writeQueue.update(mCurrentPetUri, values, new PetWriteQueue.Callback<Integer>() {
+                @Override
+                public void onComplete(Integer updatedRows) {
+                    if(updatedRows > 0) {
+                        Toast.makeText(appContext, R.string.updating_pet, Toast.LENGTH_LONG).show();
+                    }
+                    else {
+                        Toast.makeText(appContext,
+                                R.string.error_updating_pet, Toast.LENGTH_LONG).show();
+                    }
+                }
+            });
+            if (photoUri != null) {
+                savePhoto(writeQueue, mCurrentPetUri, photoUri, appContext);
             }
         }
 
     }
 
+    /**
+     * Queues the copy of the chosen image as the pet's photo, after the pet's own write.
+     */
+    private static void savePhoto(PetWriteQueue writeQueue, Uri petUri, Uri photoUri,
+                                  final Context appContext) {
+        writeQueue.savePhoto(petUri, photoUri, new PetWriteQueue.Callback<Boolean>() {
+            @Override
+            public void onComplete(Boolean saved) {
+                if (!saved) {
+                    Toast.makeText(appContext, R.string.error_saving_photo, Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
 
@@ -266,7 +385,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                 PetEntry.COLUMN_NAME,
                 PetEntry.COLUMN_BREED,
                 PetEntry.COLUMN_GENDER,
-                PetEntry.COLUMN_WEIGHT
+                PetEntry.COLUMN_WEIGHT,
+                PetEntry.COLUMN_PHOTO
         };
 
         return new CursorLoader(this,
@@ -282,21 +402,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         if (cursor.moveToFirst()) {
 
-            int nameColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_NAME);
-            int breeColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_BREED);
-            int genderColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_GENDER);
-            int weightColumnIndex = cursor.getColumnIndex(PetEntry.COLUMN_WEIGHT);
-
-            String name = cursor.getString(nameColumnIndex);
-            String breed = cursor.getString(breeColumnIndex);
-            int gender = cursor.getInt(genderColumnIndex);
-            int weight = cursor.getInt(weightColumnIndex);
+            Pet pet = new PetCursorMapper(cursor).toPet();
 
-            mNameEditText.setText(name);
-            mBreedEditText.setText(breed);
-            mWeightEditText.setText(Integer.toString(weight));
+            mNameEditText.setText(pet.getName());
+            mBreedEditText.setText(pet.getBreed());
+            mWeightEditText.setText(Integer.toString(pet.getWeight()));
 
-            switch (gender) {
+            switch (pet.getGender()) {
                 case PetEntry.GENDER_MALE:
                     mGenderSpinner.setSelection(1);
                     break;
@@ -307,6 +419,11 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
                     mGenderSpinner.setSelection(0);
                     break;
             }
+
+            // Unless another photo was chosen already
+            if (pet.getPhoto() != null && mPickedPhotoUri == null) {
+                showPhoto(PetEntry.buildPhotoUri(pet.getId()));
+            }
         }
     }
 
@@ -401,19 +518,26 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
      */
     private void deletePet() {
 
-        int rowsDeleted = 0;
-        if (mCurrentPetUri != null) {
-            rowsDeleted = getContentResolver().delete(mCurrentPetUri, null, null);
-        }
-
-        if(rowsDeleted > 0) {
-            Toast.makeText(this, R.string.delete_successful, Toast.LENGTH_SHORT).show();
-            finish();
-        }
-        else {
+        if (mCurrentPetUri == null) {
             Toast.makeText(this, R.string.delete_fail, Toast.LENGTH_SHORT).show();
+            return;
         }
 
+        // The deletion runs in the background, its result is shown once it's done.
+        final Context appContext = getApplicationContext();
+        PetWriteQueue.getInstance(this).delete(mCurrentPetUri, new PetWriteQueue.Callback<Integer>() {
+            @Override
+            public void onComplete(Integer rowsDeleted) {
+                if(rowsDeleted > 0) {
+                    Toast.makeText(appContext, R.string.delete_successful, Toast.LENGTH_SHORT).show();
+                }
+                else {
+                    Toast.makeText(appContext, R.string.delete_fail, Toast.LENGTH_SHORT).show();
+                }
+            }
+        });
+        finish();
+
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,190 @@
+package com.example.android.pets;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.data.Pet;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PetAdapter} is a {@link RecyclerView} adapter that shows a list of {@link Pet}s.
+ *
+ * New lists are handed over with {@link #submitList(List)}. The difference with the list on
+ * screen is computed on a background thread, and only the rows that were inserted, removed,
+ * moved or changed are updated, with their animations. The photo thumbnails are loaded in the
+ * background by {@link PetThumbnailLoader}.
+ */
+public class PetAdapter extends RecyclerView.Adapter<PetAdapter.PetViewHolder> {
+
+    /**
+     * Listener for clicks on a pet in the list.
+     */
+    public interface OnPetClickListener {
+        void onPetClick(Pet pet);
+    }
+
+    /** Thread on which the differences between lists are computed */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final OnPetClickListener mListener;
+    private final PetThumbnailLoader mThumbnailLoader;
+
+    /** Pets on screen */
+    private List<Pet> mPets = Collections.emptyList();
+
+    /** Incremented by every submitted list, so only the latest one gets applied */
+    private int mGeneration;
+
+    /**
+     * Constructs a new {@link PetAdapter}.
+     *
+     * @param thumbnailLoader loads the thumbnails of the pets' photos
+     * @param listener        notified when a pet is clicked
+     */
+    public PetAdapter(PetThumbnailLoader thumbnailLoader, OnPetClickListener listener) {
+        mThumbnailLoader = thumbnailLoader;
+        mListener = listener;
+        setHasStableIds(true);
+    }
+
+    /**
+     * Replaces the list of pets. The list must not be changed afterwards.
+     */
+    public void submitList(final List<Pet> pets) {
+        final int generation = ++mGeneration;
+        final List<Pet> oldPets = mPets;
+
+        if (oldPets.isEmpty() || pets.isEmpty()) {
+            // Nothing to compare
+            mPets = pets;
+            notifyDataSetChanged();
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result = DiffUtil.calculateDiff(new PetDiffCallback(oldPets, pets));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list was submitted in the meantime, this one is already stale.
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mPets = pets;
+                        result.dispatchUpdatesTo(PetAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        holder.bind(mPets.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return mPets.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mPets.get(position).getId();
+    }
+
+    /**
+     * Holds the views of a list item, so they're only looked up when the item is created.
+     */
+    class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+
+        private final TextView mName;
+        private final TextView mSummary;
+        private final ImageView mThumbnail;
+        private Pet mPet;
+
+        PetViewHolder(View itemView) {
+            super(itemView);
+            mThumbnail = (ImageView) itemView.findViewById(R.id.thumbnail);
+            mName = (TextView) itemView.findViewById(R.id.name);
+            mSummary = (TextView) itemView.findViewById(R.id.summary);
+            itemView.setOnClickListener(this);
+        }
+
+        void bind(Pet pet) {
+            mPet = pet;
+
+            String petBreed = pet.getBreed();
+            if (TextUtils.isEmpty(petBreed)) {
+                petBreed = itemView.getContext().getString(R.string.breed_unknown);
+            }
+
+            mName.setText(pet.getName());
+            mSummary.setText(petBreed);
+            mThumbnailLoader.load(pet, mThumbnail);
+        }
+
+        @Override
+        public void onClick(View view) {
+            if (mPet != null) {
+                mListener.onPetClick(mPet);
+            }
+        }
+    }
+
+    /**
+     * Compares two lists of pets: the same ID is the same item, and its content changed if any
+     * column did.
+     */
+    private static class PetDiffCallback extends DiffUtil.Callback {
+
+        private final List<Pet> mOldPets;
+        private final List<Pet> mNewPets;
+
+        PetDiffCallback(List<Pet> oldPets, List<Pet> newPets) {
+            mOldPets = oldPets;
+            mNewPets = newPets;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldPets.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewPets.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldPets.get(oldItemPosition).getId() == mNewPets.get(newItemPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldPets.get(oldItemPosition).equals(mNewPets.get(newItemPosition));
+        }
+    }
+}
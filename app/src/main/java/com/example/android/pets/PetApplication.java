@@ -0,0 +1,31 @@
+package com.example.android.pets;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+/**
+ * Turns on {@link StrictMode} in debug builds, logging disk and network access on the main thread
+ * and leaked cursors and files. Database calls on the main thread are caught separately by
+ * {@link com.example.android.pets.data.PetMainThreadGuard}, SQLite doesn't report to StrictMode.
+ */
+public class PetApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build());
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectLeakedSqlLiteObjects()
+                    .detectLeakedClosableObjects()
+                    .penaltyLog()
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.pets;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.pets.data.PetBenchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs {@link PetBenchmark} in the background and reports where the results were saved.
+ */
+public class PetBenchmarkService extends IntentService {
+
+    public static final String LOG_TAG = PetBenchmarkService.class.getSimpleName();
+
+    private static final String EXTRA_SIZES = "sizes";
+    private static final String EXTRA_LABEL = "label";
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public PetBenchmarkService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts measuring the given table sizes.
+     *
+     * @param label stored with the results, may be null
+     */
+    public static void startBenchmark(Context context, int[] sizes, String label) {
+        Intent intent = new Intent(context, PetBenchmarkService.class);
+        intent.putExtra(EXTRA_SIZES, sizes);
+        intent.putExtra(EXTRA_LABEL, label);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        int[] sizes = intent.getIntArrayExtra(EXTRA_SIZES);
+        if (sizes == null) {
+            sizes = PetBenchmark.DEFAULT_SIZES;
+        }
+
+        try {
+            File results = new PetBenchmark(this).run(sizes, intent.getStringExtra(EXTRA_LABEL));
+            Log.i(LOG_TAG, "Saved benchmark results to " + results);
+            showToast(getString(R.string.benchmark_done, results.getPath()));
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to run the benchmark", e);
+            showToast(getString(R.string.benchmark_failed));
+        }
+    }
+
+    private void showToast(final String message) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
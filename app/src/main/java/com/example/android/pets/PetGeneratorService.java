@@ -0,0 +1,80 @@
+package com.example.android.pets;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetGenerator;
+
+/**
+ * Inserts made up pets with {@link PetGenerator} in the background, up to millions of them, and
+ * reports how many were inserted.
+ */
+public class PetGeneratorService extends IntentService {
+
+    public static final String LOG_TAG = PetGeneratorService.class.getSimpleName();
+
+    private static final String EXTRA_COUNT = "count";
+    private static final String EXTRA_SEED = "seed";
+
+    /** Pets inserted between two progress lines in the log */
+    private static final int LOG_INTERVAL = 100000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public PetGeneratorService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts inserting the given number of pets. The same seed makes the same pets.
+     */
+    public static void startGenerating(Context context, int count, long seed) {
+        Intent intent = new Intent(context, PetGeneratorService.class);
+        intent.putExtra(EXTRA_COUNT, count);
+        intent.putExtra(EXTRA_SEED, seed);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        int count = intent.getIntExtra(EXTRA_COUNT, 0);
+        long seed = intent.getLongExtra(EXTRA_SEED, 0);
+        long start = SystemClock.elapsedRealtime();
+
+        int rowsInserted = 0;
+        try {
+            rowsInserted = new PetGenerator(seed).insert(getContentResolver(),
+                    PetEntry.CONTENT_URI, count, new PetGenerator.Listener() {
+                        @Override
+                        public boolean onProgress(int inserted, int total) {
+                            if (inserted % LOG_INTERVAL < PetGenerator.CHUNK_SIZE) {
+                                Log.i(LOG_TAG, "Inserted " + inserted + " of " + total + " pets");
+                            }
+                            return true;
+                        }
+                    });
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to generate pets", e);
+        }
+
+        Log.i(LOG_TAG, "Inserted " + rowsInserted + " pets with seed " + seed + " in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        showToast(getString(R.string.generate_done, rowsInserted));
+    }
+
+    private void showToast(final String message) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.pets;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import com.example.android.pets.data.PetImporter;
+
+import java.io.IOException;
+
+/**
+ * Imports a CSV or JSON file of pets in the background with {@link PetImporter}. Imports run one
+ * after the other, and an import that was interrupted resumes when the same file is imported
+ * again.
+ */
+public class PetImportService extends IntentService {
+
+    public static final String LOG_TAG = PetImportService.class.getSimpleName();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public PetImportService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts importing the pets in the given file.
+     */
+    public static void startImport(Context context, Uri source) {
+        Intent intent = new Intent(context, PetImportService.class);
+        intent.setData(source);
+        // Keep read access to the file once the activity that picked it is gone
+        intent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Uri source = intent.getData();
+        if (source == null) {
+            return;
+        }
+
+        PetImporter importer = new PetImporter(this, new PetImporter.Listener() {
+            @Override
+            public void onProgress(long recordsRead, long rowsImported, long rowsRejected) {
+                Log.i(LOG_TAG, "Read " + recordsRead + " records, imported " + rowsImported
+                        + ", rejected " + rowsRejected);
+            }
+
+            @Override
+            public void onRecordRejected(long record, String reason) {
+                Log.w(LOG_TAG, "Rejected record " + record + ": " + reason);
+            }
+        });
+
+        try {
+            PetImporter.Result result = importer.importPets(source);
+            if (result != null) {
+                showToast(getString(R.string.import_done, result.rowsImported, result.rowsRejected));
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to import " + source, e);
+            showToast(getString(R.string.import_failed));
+        }
+    }
+
+    private void showToast(final String message) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(getApplicationContext(), message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
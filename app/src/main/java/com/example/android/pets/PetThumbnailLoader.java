@@ -0,0 +1,244 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetPhotos;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the thumbnails of the pets' photos into image views, off the main thread.
+ *
+ * Thumbnails are square crops of {@link R.dimen#pet_thumbnail_size}. They're kept in two caches:
+ * decoded in memory, in an LRU bounded to {@link #MEMORY_CACHE_FRACTION} of the heap, and as
+ * small JPEGs on disk, bounded to {@link #DISK_CACHE_SIZE} bytes. Only a thumbnail found in
+ * neither is decoded from the photo, subsampled. Both caches are keyed on the photo's name, which
+ * changes with the photo, so a stale thumbnail is never shown.
+ *
+ * Views are recycled while the list scrolls: each view remembers the photo it was last asked
+ * for, and a thumbnail that arrives for an older one is cached but not shown.
+ */
+public class PetThumbnailLoader {
+
+    public static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    /** Part of the heap the decoded thumbnails may take */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+
+    /** Bytes of thumbnails kept on disk, about 4000 thumbnails */
+    private static final long DISK_CACHE_SIZE = 20 * 1024 * 1024;
+
+    /** Directory of the thumbnails, in the app's cache */
+    private static final String DISK_CACHE_DIRECTORY = "pet_thumbnails";
+
+    private static final int JPEG_QUALITY = 80;
+
+    /** Threads decoding thumbnails; photos are read from flash, more wouldn't go faster */
+    private static final int THREAD_COUNT = 2;
+
+    private static PetThumbnailLoader sInstance;
+
+    private final ContentResolver mResolver;
+    private final int mSize;
+    private final File mDiskCacheDirectory;
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final Executor mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Bytes in the disk cache, -1 until counted. Guarded by mDiskCacheDirectory. */
+    private long mDiskCacheBytes = -1;
+
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private PetThumbnailLoader(Context context) {
+        mResolver = context.getContentResolver();
+        mSize = context.getResources().getDimensionPixelSize(R.dimen.pet_thumbnail_size);
+        mDiskCacheDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / MEMORY_CACHE_FRACTION);
+        mMemoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /**
+     * Shows the thumbnail of the pet's photo in the view, at once if it's in memory and
+     * otherwise once it's loaded. The view is cleared meanwhile, and stays clear if the pet has
+     * no photo.
+     */
+    public void load(final Pet pet, final ImageView view) {
+        final String photo = pet.getPhoto();
+        view.setTag(R.id.thumbnail_photo, photo);
+        if (photo == null) {
+            view.setImageDrawable(null);
+            return;
+        }
+
+        Bitmap thumbnail = mMemoryCache.get(photo);
+        if (thumbnail != null) {
+            view.setImageBitmap(thumbnail);
+            return;
+        }
+
+        view.setImageDrawable(null);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Scrolled past before the work started
+                if (!isWanted(view, photo)) {
+                    return;
+                }
+                final Bitmap thumbnail = loadThumbnail(pet.getId(), photo);
+                if (thumbnail == null) {
+                    return;
+                }
+                mMemoryCache.put(photo, thumbnail);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isWanted(view, photo)) {
+                            view.setImageBitmap(thumbnail);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Whether the view still waits for the given photo. The tag is only set on the main thread,
+     * reading it from a worker may be a little late, which only costs a wasted load.
+     */
+    private static boolean isWanted(ImageView view, String photo) {
+        return photo.equals(view.getTag(R.id.thumbnail_photo));
+    }
+
+    /**
+     * Reads the thumbnail from the disk cache, or makes it from the photo and stores it there.
+     *
+     * @return the thumbnail, or null if the photo can't be read
+     */
+    private Bitmap loadThumbnail(long petId, String photo) {
+        File file = new File(mDiskCacheDirectory, photo);
+        if (file.isFile()) {
+            Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath());
+            if (thumbnail != null) {
+                // Recently used, trimmed last
+                file.setLastModified(System.currentTimeMillis());
+                return thumbnail;
+            }
+        }
+
+        Bitmap bitmap;
+        try {
+            bitmap = PetPhotos.decodeSampled(mResolver, PetEntry.buildPhotoUri(petId), mSize);
+        } catch (FileNotFoundException e) {
+            // Deleted or replaced since the list was loaded, the list reloads soon.
+            return null;
+        }
+        if (bitmap == null) {
+            Log.w(LOG_TAG, "Cannot decode photo " + photo);
+            return null;
+        }
+        Bitmap thumbnail = ThumbnailUtils.extractThumbnail(bitmap, mSize, mSize,
+                ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+        writeToDiskCache(file, thumbnail);
+        return thumbnail;
+    }
+
+    private void writeToDiskCache(File file, Bitmap thumbnail) {
+        synchronized (mDiskCacheDirectory) {
+            if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+                return;
+            }
+            File temp = new File(mDiskCacheDirectory, file.getName() + ".tmp");
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+                }
+                finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Cannot cache thumbnail " + file, e);
+                temp.delete();
+                return;
+            }
+            // Renamed once complete, a reader never sees half a thumbnail.
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+
+            if (mDiskCacheBytes == -1) {
+                mDiskCacheBytes = 0;
+                for (File cached : listDiskCache()) {
+                    mDiskCacheBytes += cached.length();
+                }
+            } else {
+                mDiskCacheBytes += file.length();
+            }
+            if (mDiskCacheBytes > DISK_CACHE_SIZE) {
+                trimDiskCache();
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails until the cache is down to three quarters of
+     * its size, so it isn't trimmed again on every new thumbnail.
+     */
+    private void trimDiskCache() {
+        File[] files = listDiskCache();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lastModifiedA = a.lastModified();
+                long lastModifiedB = b.lastModified();
+                return lastModifiedA < lastModifiedB ? -1 : (lastModifiedA == lastModifiedB ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (mDiskCacheBytes <= DISK_CACHE_SIZE * 3 / 4) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                mDiskCacheBytes -= length;
+            }
+        }
+    }
+
+    private File[] listDiskCache() {
+        File[] files = mDiskCacheDirectory.listFiles();
+        return files != null ? files : new File[0];
+    }
+}
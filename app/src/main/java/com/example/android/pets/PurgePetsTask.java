@@ -0,0 +1,120 @@
+package com.example.android.pets;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+/**
+ * Deletes every pet in the background, {@link #CHUNK_SIZE} pets at a time. Each chunk is its own
+ * short transaction, so the database is never locked for long and readers keep going in between.
+ * The observers of {@link PetEntry#CONTENT_URI} are notified once, when the task ends, whether it
+ * finished or was cancelled.
+ *
+ * The pets deleted can be restored from {@link #getStartedAt()} on, see
+ * {@link PetContract#METHOD_RESTORE}.
+ */
+public class PurgePetsTask extends AsyncTask<Void, Long, Long> {
+
+    /**
+     * Receives the progress of the task, on the main thread.
+     */
+    public interface Listener {
+
+        void onPurgeProgress(long rowsDeleted, long rowsTotal);
+
+        void onPurgeFinished(long rowsDeleted, boolean cancelled);
+    }
+
+    /** Number of pets deleted per transaction */
+    public static final int CHUNK_SIZE = 500;
+
+    private final ContentResolver mResolver;
+    private Listener mListener;
+
+    /** Time the first chunk was deleted at, in milliseconds since the epoch */
+    private volatile long mStartedAt;
+
+    public PurgePetsTask(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Sets the listener, or removes it if null. Can be changed while the task runs, for example
+     * when the activity showing the progress is recreated.
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Returns the time the task started deleting at, in milliseconds since the epoch.
+     */
+    public long getStartedAt() {
+        return mStartedAt;
+    }
+
+    @Override
+    protected Long doInBackground(Void... params) {
+        mStartedAt = System.currentTimeMillis();
+        long rowsTotal = countPets();
+        long rowsDeleted = 0;
+        try {
+            while (!isCancelled()) {
+                Bundle result = mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_DELETE_CHUNK,
+                        String.valueOf(CHUNK_SIZE), null);
+                int chunk = result != null ? result.getInt(PetContract.KEY_ROWS_DELETED) : 0;
+                if (chunk == 0) {
+                    break;
+                }
+                rowsDeleted += chunk;
+                publishProgress(rowsDeleted, Math.max(rowsTotal, rowsDeleted));
+            }
+        }
+        finally {
+            if (rowsDeleted != 0) {
+                mResolver.notifyChange(PetEntry.CONTENT_URI, null);
+            }
+        }
+        return rowsDeleted;
+    }
+
+    private long countPets() {
+        Cursor cursor = mResolver.query(PetStatsEntry.CONTENT_URI,
+                new String[] { PetStatsEntry.COLUMN_PET_COUNT }, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onProgressUpdate(Long... values) {
+        if (mListener != null) {
+            mListener.onPurgeProgress(values[0], values[1]);
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Long rowsDeleted) {
+        if (mListener != null) {
+            mListener.onPurgeFinished(rowsDeleted, false);
+        }
+    }
+
+    @Override
+    protected void onCancelled(Long rowsDeleted) {
+        if (mListener != null) {
+            mListener.onPurgeFinished(rowsDeleted != null ? rowsDeleted : 0, true);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link PetSyncServer} kept in memory, standing in for the shelter server. Several
+ * {@link PetSyncEngine}s can share one to sync with each other within the process.
+ *
+ * It counts the records that go through it, so the cost of a sync can be checked against the
+ * number of pets that changed.
+ */
+public class InMemoryPetSyncServer implements PetSyncServer {
+
+    /** Latest state of each pet, deleted ones included, by remote ID */
+    private final Map<String, Record> mRecords = new HashMap<String, Record>();
+
+    /** Remote IDs by the version of their latest state */
+    private final TreeMap<Long, String> mVersions = new TreeMap<Long, String>();
+
+    private long mLastVersion;
+
+    private long mRequests;
+    private long mRecordsPushed;
+    private long mRecordsPulled;
+
+    @Override
+    public synchronized List<PushResult> push(List<Record> writes) {
+        mRequests++;
+        mRecordsPushed += writes.size();
+
+        List<PushResult> results = new ArrayList<PushResult>(writes.size());
+        for (Record write : writes) {
+            Record current = mRecords.get(write.remoteId);
+            if (current != null && current.version != write.version) {
+                results.add(new PushResult(false, current));
+                continue;
+            }
+            if (current != null) {
+                mVersions.remove(current.version);
+            }
+            Record stored = new Record(write.remoteId, ++mLastVersion, write.pet);
+            mRecords.put(stored.remoteId, stored);
+            mVersions.put(stored.version, stored.remoteId);
+            results.add(new PushResult(true, stored));
+        }
+        return results;
+    }
+
+    @Override
+    public synchronized List<Record> pull(long sinceVersion, int limit) {
+        mRequests++;
+
+        List<Record> records = new ArrayList<Record>(Math.min(limit, mVersions.size()));
+        for (String remoteId : mVersions.tailMap(sinceVersion, false).values()) {
+            if (records.size() == limit) {
+                break;
+            }
+            records.add(mRecords.get(remoteId));
+        }
+        mRecordsPulled += records.size();
+        return records;
+    }
+
+    /** Returns the pets on the server, deleted ones excluded */
+    public synchronized List<Record> getPets() {
+        List<Record> pets = new ArrayList<Record>(mRecords.size());
+        for (Record record : mRecords.values()) {
+            if (!record.isDeleted()) {
+                pets.add(record);
+            }
+        }
+        return pets;
+    }
+
+    public synchronized long getRequestCount() {
+        return mRequests;
+    }
+
+    public synchronized long getRecordsPushed() {
+        return mRecordsPushed;
+    }
+
+    public synchronized long getRecordsPulled() {
+        return mRecordsPulled;
+    }
+}
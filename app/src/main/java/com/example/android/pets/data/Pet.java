@@ -0,0 +1,152 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Immutable pet, as stored in the {@link PetEntry#TABLE_NAME} table. Use {@link PetCursorMapper}
+ * to read them from a cursor.
+ */
+public final class Pet implements Parcelable {
+
+    /** ID of a pet that hasn't been saved yet */
+    public static final long NO_ID = -1;
+
+    private final long mId;
+    private final String mName;
+    private final String mBreed;
+    private final int mGender;
+    private final int mWeight;
+    private final String mPhoto;
+
+    /**
+     * @param id     the pet's ID, or {@link #NO_ID}
+     * @param name   the pet's name
+     * @param breed  the pet's breed, may be null
+     * @param gender one of {@link PetEntry#GENDER_UNKNOWN}, {@link PetEntry#GENDER_MALE} or
+     *               {@link PetEntry#GENDER_FEMALE}
+     * @param weight the pet's weight in kg
+     */
+    public Pet(long id, String name, String breed, int gender, int weight) {
+        this(id, name, breed, gender, weight, null);
+    }
+
+    /**
+     * @param photo the name of the pet's photo, see {@link PetEntry#COLUMN_PHOTO}, may be null
+     */
+    public Pet(long id, String name, String breed, int gender, int weight, String photo) {
+        mId = id;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+        mPhoto = photo;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getBreed() {
+        return mBreed;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getWeight() {
+        return mWeight;
+    }
+
+    /**
+     * Returns the name of the pet's photo, or null if it has none or it wasn't read.
+     */
+    public String getPhoto() {
+        return mPhoto;
+    }
+
+    /**
+     * Returns the columns of the pet, without its ID, to insert or update it through
+     * {@link PetProvider}. The photo is left out, it's written on its own URI, see
+     * {@link PetEntry#buildPhotoUri(long)}.
+     */
+    public ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_NAME, mName);
+        values.put(PetEntry.COLUMN_BREED, mBreed);
+        values.put(PetEntry.COLUMN_GENDER, mGender);
+        values.put(PetEntry.COLUMN_WEIGHT, mWeight);
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+        Pet other = (Pet) o;
+        return mId == other.mId
+                && mGender == other.mGender
+                && mWeight == other.mWeight
+                && TextUtils.equals(mName, other.mName)
+                && TextUtils.equals(mBreed, other.mBreed)
+                && TextUtils.equals(mPhoto, other.mPhoto);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + (mName != null ? mName.hashCode() : 0);
+        result = 31 * result + (mBreed != null ? mBreed.hashCode() : 0);
+        result = 31 * result + mGender;
+        result = 31 * result + mWeight;
+        result = 31 * result + (mPhoto != null ? mPhoto.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "Pet{id=" + mId + ", name=" + mName + ", breed=" + mBreed
+                + ", gender=" + mGender + ", weight=" + mWeight + ", photo=" + mPhoto + "}";
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLong(mId);
+        dest.writeString(mName);
+        dest.writeString(mBreed);
+        dest.writeInt(mGender);
+        dest.writeInt(mWeight);
+        dest.writeString(mPhoto);
+    }
+
+    public static final Creator<Pet> CREATOR = new Creator<Pet>() {
+        @Override
+        public Pet createFromParcel(Parcel source) {
+            return new Pet(source.readLong(), source.readString(), source.readString(),
+                    source.readInt(), source.readInt(), source.readString());
+        }
+
+        @Override
+        public Pet[] newArray(int size) {
+            return new Pet[size];
+        }
+    };
+}
@@ -0,0 +1,296 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures the throughput and latency of {@link PetProvider} at several table sizes, and saves
+ * the results as JSON so runs on different versions of the app can be compared.
+ *
+ * Each size gets a new scratch database filled with bulk inserts, then single inserts, queries
+ * by ID, updates and deletes are timed one by one on random pets, and full table queries are
+ * timed as a whole. The pets, made by {@link PetGenerator}, and the pets picked are the same
+ * from one run to the next. The app's own database isn't touched. Two results files are compared
+ * with {@link PetBenchmarkComparison}.
+ *
+ * {@link #run} blocks for a long time at the larger sizes, run it on a background thread.
+ */
+public class PetBenchmark {
+
+    public static final String LOG_TAG = PetBenchmark.class.getSimpleName();
+
+    /** Table sizes measured by default */
+    public static final int[] DEFAULT_SIZES = { 1000, 100000, 1000000 };
+
+    /** Name of the scratch database, deleted after each size */
+    private static final String DATABASE_NAME = "pet_benchmark.db";
+
+    /** Seed of the pets and of the pets picked, fixed so runs can be compared */
+    private static final long SEED = 845;
+
+    /** Number of single operations timed at each size, at most */
+    private static final int SAMPLE_SIZE = 1000;
+
+    /** Number of pets per bulk insert */
+    private static final int BULK_CHUNK_SIZE = 1000;
+
+    /** Number of full table queries timed at each size */
+    private static final int QUERY_ALL_RUNS = 3;
+
+    private final Context mContext;
+
+    public PetBenchmark(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Measures each size in turn and writes the results in the benchmarks directory of the app's
+     * files, external storage if there's some.
+     *
+     * @param sizes numbers of pets to measure
+     * @param label stored with the results to tell runs apart, such as the commit built; may be
+     *              null
+     * @return the results file
+     */
+    public File run(int[] sizes, String label) throws IOException {
+        File directory = getResultsDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File output = new File(directory, "benchmark-" + System.currentTimeMillis() + ".json");
+
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(new FileOutputStream(output), "UTF-8"));
+        try {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("label").value(label);
+            writer.name("timestamp").value(System.currentTimeMillis());
+            writer.name("app_version").value(BuildConfig.VERSION_NAME);
+            writer.name("device").value(Build.MANUFACTURER + " " + Build.MODEL);
+            writer.name("sdk").value(Build.VERSION.SDK_INT);
+            writer.name("database_version").value(PetDbHelper.DATABASE_VERSION);
+            writer.name("seed").value(SEED);
+            writer.name("runs").beginArray();
+            for (int size : sizes) {
+                runSize(size, writer);
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        finally {
+            writer.close();
+        }
+        return output;
+    }
+
+    /**
+     * Returns the directory of the results files: benchmarks in the app's files, on external
+     * storage if there's some.
+     */
+    public File getResultsDirectory() {
+        File directory = mContext.getExternalFilesDir(null);
+        return new File(directory != null ? directory : mContext.getFilesDir(), "benchmarks");
+    }
+
+    private void runSize(int size, JsonWriter writer) throws IOException {
+        Log.i(LOG_TAG, "Measuring " + size + " pets");
+
+        mContext.deleteDatabase(DATABASE_NAME);
+        PetDbHelper dbHelper = new PetDbHelper(mContext, DATABASE_NAME);
+        PetProvider provider = new PetProvider(dbHelper);
+        provider.attachInfo(mContext, null);
+        try {
+            PetGenerator generator = new PetGenerator(SEED);
+            Random random = new Random(SEED);
+            int samples = Math.min(size, SAMPLE_SIZE);
+
+            writer.beginObject();
+            writer.name("rows").value(size);
+            writer.name("operations").beginObject();
+
+            // Fill the table, the pets get the IDs 1 to size.
+            Timings timings = new Timings(size / BULK_CHUNK_SIZE + 1);
+            ContentValues[] chunk = new ContentValues[BULK_CHUNK_SIZE];
+            for (int done = 0; done < size; done += chunk.length) {
+                if (size - done < chunk.length) {
+                    chunk = new ContentValues[size - done];
+                }
+                generator.next(chunk);
+                long start = System.nanoTime();
+                provider.bulkInsert(PetEntry.CONTENT_URI, chunk);
+                timings.add(System.nanoTime() - start, chunk.length);
+            }
+            timings.write("bulk_insert", writer);
+
+            timings = new Timings(QUERY_ALL_RUNS);
+            for (int run = 0; run < QUERY_ALL_RUNS; run++) {
+                long start = System.nanoTime();
+                Cursor cursor = provider.query(PetEntry.CONTENT_URI, PetCache.COLUMNS, null, null, null);
+                int rows = 0;
+                try {
+                    PetCursorMapper mapper = new PetCursorMapper(cursor);
+                    while (cursor.moveToNext()) {
+                        mapper.toPet();
+                        rows++;
+                    }
+                }
+                finally {
+                    cursor.close();
+                }
+                timings.add(System.nanoTime() - start, rows);
+            }
+            timings.write("query_all", writer);
+
+            timings = new Timings(samples);
+            for (int i = 0; i < samples; i++) {
+                Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1 + random.nextInt(size));
+                long start = System.nanoTime();
+                Cursor cursor = provider.query(uri, PetCache.COLUMNS, null, null, null);
+                try {
+                    if (cursor.moveToFirst()) {
+                        new PetCursorMapper(cursor).toPet();
+                    }
+                }
+                finally {
+                    cursor.close();
+                }
+                timings.add(System.nanoTime() - start, 1);
+            }
+            timings.write("query_by_id", writer);
+
+            // The single writes are timed through the compiled statements, then through
+            // SQLiteDatabase.insert() and update() as they were before them. Each pass deletes
+            // different pets, and the second one doesn't update the pets deleted by the first.
+            Set<Long> deleted = new HashSet<Long>();
+            int deleteSamples = Math.min(samples, size / 2);
+            for (boolean useStatements : new boolean[] { true, false }) {
+                provider.setUseStatements(useStatements);
+                String suffix = useStatements ? "" : "_uncompiled";
+
+                // Whole rows, the compiled update only takes those.
+                timings = new Timings(samples);
+                for (int i = 0; i < samples; i++) {
+                    long id;
+                    do {
+                        id = 1 + random.nextInt(size);
+                    } while (deleted.contains(id));
+                    Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+                    ContentValues values = generator.next();
+                    long start = System.nanoTime();
+                    int rows = provider.update(uri, values, null, null);
+                    timings.add(System.nanoTime() - start, rows);
+                }
+                timings.write("update" + suffix, writer);
+
+                timings = new Timings(samples);
+                for (int i = 0; i < samples; i++) {
+                    ContentValues values = generator.next();
+                    long start = System.nanoTime();
+                    provider.insert(PetEntry.CONTENT_URI, values);
+                    timings.add(System.nanoTime() - start, 1);
+                }
+                timings.write("insert" + suffix, writer);
+
+                timings = new Timings(deleteSamples);
+                for (int i = 0; i < deleteSamples; ) {
+                    long id = 1 + random.nextInt(size);
+                    if (!deleted.add(id)) {
+                        continue;
+                    }
+                    Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+                    long start = System.nanoTime();
+                    int rows = provider.delete(uri, null, null);
+                    timings.add(System.nanoTime() - start, rows);
+                    i++;
+                }
+                timings.write("delete" + suffix, writer);
+            }
+
+            writer.endObject();
+            writer.endObject();
+        }
+        finally {
+            provider.shutdown();
+            dbHelper.close();
+            mContext.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Durations of the timed operations of one kind.
+     */
+    private static class Timings {
+
+        private long[] mNanos;
+        private int mCount;
+        private long mRows;
+
+        Timings(int capacity) {
+            mNanos = new long[Math.max(capacity, 1)];
+        }
+
+        void add(long nanos, int rows) {
+            if (mCount == mNanos.length) {
+                mNanos = Arrays.copyOf(mNanos, mCount * 2);
+            }
+            mNanos[mCount++] = nanos;
+            mRows += rows;
+        }
+
+        /**
+         * Writes the number of operations and rows, the rates per second and the latency
+         * percentiles in microseconds.
+         */
+        void write(String name, JsonWriter writer) throws IOException {
+            long[] sorted = Arrays.copyOf(mNanos, mCount);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long nanos : sorted) {
+                total += nanos;
+            }
+            double seconds = total / 1e9;
+
+            writer.name(name).beginObject();
+            writer.name("operations").value(mCount);
+            writer.name("rows").value(mRows);
+            writer.name("total_ms").value(total / 1e6);
+            writer.name("operations_per_second").value(seconds > 0 ? mCount / seconds : 0);
+            writer.name("rows_per_second").value(seconds > 0 ? mRows / seconds : 0);
+            writer.name("mean_us").value(mCount > 0 ? total / 1e3 / mCount : 0);
+            writer.name("p50_us").value(percentile(sorted, 50) / 1e3);
+            writer.name("p90_us").value(percentile(sorted, 90) / 1e3);
+            writer.name("p99_us").value(percentile(sorted, 99) / 1e3);
+            writer.name("max_us").value(sorted.length > 0 ? sorted[sorted.length - 1] / 1e3 : 0);
+            writer.endObject();
+
+            Log.i(LOG_TAG, name + ": " + mCount + " operations in " + (long) (total / 1e6) + " ms");
+        }
+
+        /** Nearest-rank percentile of sorted durations */
+        private static long percentile(long[] sorted, int percent) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1];
+        }
+    }
+}
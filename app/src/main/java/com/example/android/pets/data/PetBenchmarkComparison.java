@@ -0,0 +1,147 @@
+package com.example.android.pets.data;
+
+import android.util.JsonReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares two results files of {@link PetBenchmark}, typically a run of the previous version of
+ * the app and one of the new version on the same device. Runs are only comparable when they
+ * measured the same sizes with the same seed, which the results record.
+ *
+ * The comparison is tab-separated text with a header line, one line per size and operation, so
+ * it reads as a table and can be diffed or loaded in a spreadsheet. Operations measured by only
+ * one of the runs have "-" for the other.
+ */
+public final class PetBenchmarkComparison {
+
+    /** Metrics compared for each operation, as named in the results */
+    private static final String[] METRICS = { "operations_per_second", "p50_us", "p99_us" };
+
+    private static final String MISSING = "-";
+
+    private PetBenchmarkComparison() {
+    }
+
+    /**
+     * Writes the comparison of the results to the baseline.
+     */
+    public static void write(File baseline, File results, Writer out) throws IOException {
+        Map<String, double[]> before = read(baseline);
+        Map<String, double[]> after = read(results);
+
+        out.write("rows\toperation");
+        for (String metric : METRICS) {
+            out.write("\tbaseline_" + metric + "\t" + metric);
+        }
+        out.write("\tthroughput_change_percent\n");
+
+        Map<String, double[]> keys = new LinkedHashMap<String, double[]>(before);
+        keys.putAll(after);
+        for (String key : keys.keySet()) {
+            double[] old = before.get(key);
+            double[] now = after.get(key);
+            out.write(key);
+            for (int i = 0; i < METRICS.length; i++) {
+                out.write("\t" + format(old, i) + "\t" + format(now, i));
+            }
+            out.write("\t");
+            if (old != null && now != null && old[0] > 0) {
+                out.write(String.format(Locale.US, "%+.1f", (now[0] / old[0] - 1) * 100));
+            } else {
+                out.write(MISSING);
+            }
+            out.write("\n");
+        }
+    }
+
+    private static String format(double[] values, int metric) {
+        return values != null ? String.format(Locale.US, "%.1f", values[metric]) : MISSING;
+    }
+
+    /**
+     * Reads the {@link #METRICS} of every operation, keyed by the size and the operation
+     * separated by a tab, in the order of the file.
+     */
+    private static Map<String, double[]> read(File file) throws IOException {
+        Map<String, double[]> operations = new LinkedHashMap<String, double[]>();
+        JsonReader reader = new JsonReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"runs".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readRun(reader, operations);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        finally {
+            reader.close();
+        }
+        return operations;
+    }
+
+    private static void readRun(JsonReader reader, Map<String, double[]> operations)
+            throws IOException {
+        long rows = 0;
+        Map<String, double[]> run = new LinkedHashMap<String, double[]>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("rows".equals(name)) {
+                rows = reader.nextLong();
+            } else if ("operations".equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    run.put(reader.nextName(), readMetrics(reader));
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        for (Map.Entry<String, double[]> operation : run.entrySet()) {
+            operations.put(rows + "\t" + operation.getKey(), operation.getValue());
+        }
+    }
+
+    private static double[] readMetrics(JsonReader reader) throws IOException {
+        double[] metrics = new double[METRICS.length];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            int index = indexOf(name);
+            if (index != -1) {
+                metrics[index] = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return metrics;
+    }
+
+    private static int indexOf(String metric) {
+        for (int i = 0; i < METRICS.length; i++) {
+            if (METRICS[i].equals(metric)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Bounded LRU cache of single pets, used by {@link PetProvider} to answer queries on
+ * {@code pets/#} without going to the database. Pets are stored with all their columns, so any
+ * projection of them can be served.
+ *
+ * Every write bumps a generation number. A row read from the database is only cached if no write
+ * happened since the read started, so a slow reader can't put back a row that was just changed.
+ * The provider applies the writes of a transaction only once it commits, as readers on other
+ * connections see the rows as they were until then.
+ */
+class PetCache {
+
+    /** Columns kept for each pet, in this order */
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_NAME,
+            PetEntry.COLUMN_BREED,
+            PetEntry.COLUMN_GENDER,
+            PetEntry.COLUMN_WEIGHT,
+            PetEntry.COLUMN_PHOTO
+    };
+
+    private final LruCache<Long, Pet> mPets;
+
+    /** Number of writes so far, guarded by this */
+    private long mGeneration;
+
+    /**
+     * @param maxSize most pets kept in the cache
+     */
+    PetCache(int maxSize) {
+        mPets = new LruCache<Long, Pet>(maxSize);
+    }
+
+    /**
+     * Whether the projection only asks for columns the cache keeps.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOf(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a cursor with the given columns of the pet, or an empty cursor if the pet is null.
+     */
+    static Cursor toCursor(Pet pet, String[] projection) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (pet != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = getValue(pet, indexOf(columns[i]));
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the cached pet, or null if it isn't cached. Counts as a hit or a miss.
+     */
+    Pet get(long id) {
+        return mPets.get(id);
+    }
+
+    /**
+     * Returns the current generation, to be passed to {@link #putIfUnchanged} once the pet has
+     * been read.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches a pet read from the database, unless something was written since
+     * {@link #getGeneration()} returned {@code generation}.
+     */
+    synchronized void putIfUnchanged(Pet pet, long generation) {
+        if (generation == mGeneration) {
+            mPets.put(pet.getId(), pet);
+        }
+    }
+
+    /**
+     * Applies an update of the given pet to its cached copy, if it's cached. An update never
+     * holds the photo, see {@link #setPhoto}, so a pet that isn't cached stays out.
+     */
+    synchronized void update(long id, ContentValues values) {
+        mGeneration++;
+
+        Pet pet = mPets.remove(id);
+        if (pet == null) {
+            return;
+        }
+
+        String name = pet.getName();
+        String breed = pet.getBreed();
+        Integer gender = pet.getGender();
+        Integer weight = pet.getWeight();
+
+        for (String column : values.keySet()) {
+            if (PetEntry.COLUMN_NAME.equals(column)) {
+                name = values.getAsString(column);
+            } else if (PetEntry.COLUMN_BREED.equals(column)) {
+                breed = values.getAsString(column);
+            } else if (PetEntry.COLUMN_GENDER.equals(column)) {
+                gender = values.getAsInteger(column);
+            } else if (PetEntry.COLUMN_WEIGHT.equals(column)) {
+                weight = values.getAsInteger(column);
+            } else {
+                // The ID or a column we don't keep changed, leave the pet out.
+                return;
+            }
+        }
+
+        if (name != null && gender != null && weight != null) {
+            mPets.put(id, new Pet(id, name, breed, gender, weight, pet.getPhoto()));
+        }
+    }
+
+    /**
+     * Applies a new photo of the given pet to its cached copy, if it's cached.
+     */
+    synchronized void setPhoto(long id, String photo) {
+        mGeneration++;
+
+        Pet pet = mPets.remove(id);
+        if (pet != null) {
+            mPets.put(id, new Pet(id, pet.getName(), pet.getBreed(), pet.getGender(),
+                    pet.getWeight(), photo));
+        }
+    }
+
+    /**
+     * Removes the given pet from the cache.
+     */
+    synchronized void remove(long id) {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    /**
+     * Removes every pet from the cache, for writes that may touch any row.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        mPets.evictAll();
+    }
+
+    int hitCount() {
+        return mPets.hitCount();
+    }
+
+    int missCount() {
+        return mPets.missCount();
+    }
+
+    private static Object getValue(Pet pet, int column) {
+        switch (column) {
+            case 0:
+                return pet.getId();
+            case 1:
+                return pet.getName();
+            case 2:
+                return pet.getBreed();
+            case 3:
+                return pet.getGender();
+            case 4:
+                return pet.getWeight();
+            default:
+                return pet.getPhoto();
+        }
+    }
+
+    private static int indexOf(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coalesces the change notifications sent by {@link PetProvider}. The first change starts a
+ * window of {@link #WINDOW_MILLIS}, and every URI changed during that window is notified once
+ * at its end, so a burst of writes makes observers requery once instead of once per write.
+ *
+ * Before notifying, URIs already covered by another pending URI are dropped (a change to
+ * {@code pets} reaches the observers of {@code pets/5} anyway), and if there are still more than
+ * {@link #MAX_URIS}, they're replaced by their parents.
+ *
+ * A notifier without a resolver drops the changes, for providers whose database nobody observes.
+ */
+class PetChangeNotifier {
+
+    /** How long changes are collected before the observers are notified */
+    static final long WINDOW_MILLIS = 100;
+
+    /** Most URIs notified at the end of a window */
+    static final int MAX_URIS = 32;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** URIs changed in the current window, guarded by this */
+    private Set<Uri> mPending = new HashSet<Uri>();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param resolver notified of the changes, or null to drop them
+     */
+    PetChangeNotifier(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Records that the data at the given URI has changed. Its observers are notified when the
+     * current window ends.
+     */
+    void notifyChange(Uri uri) {
+        if (mResolver == null) {
+            return;
+        }
+        // Observers are registered by path, so the query doesn't matter.
+        uri = uri.buildUpon().clearQuery().build();
+        synchronized (this) {
+            boolean windowOpen = !mPending.isEmpty();
+            mPending.add(uri);
+            if (windowOpen) {
+                return;
+            }
+        }
+        mHandler.postDelayed(mFlush, WINDOW_MILLIS);
+    }
+
+    /**
+     * Notifies the observers of everything that changed during the window that just ended.
+     */
+    private void flush() {
+        Set<Uri> changed;
+        synchronized (this) {
+            changed = mPending;
+            mPending = new HashSet<Uri>();
+        }
+
+        changed = removeCovered(changed);
+        while (changed.size() > MAX_URIS) {
+            Set<Uri> parents = new HashSet<Uri>();
+            for (Uri uri : changed) {
+                parents.add(getParent(uri));
+            }
+            changed = removeCovered(parents);
+        }
+
+        for (Uri uri : changed) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Returns the URIs that don't have an ancestor in the set.
+     */
+    private static Set<Uri> removeCovered(Set<Uri> uris) {
+        Set<Uri> result = new HashSet<Uri>();
+        for (Uri uri : uris) {
+            boolean covered = false;
+            for (Uri parent = getParent(uri); parent != null; parent = getParent(parent)) {
+                if (uris.contains(parent)) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                result.add(uri);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the URI with the last path segment removed, or null if there's no path left.
+     * The root of the authority is returned for URIs with a single segment.
+     */
+    private static Uri getParent(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return null;
+        }
+        Uri.Builder builder = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority());
+        for (int i = 0; i < segments.size() - 1; i++) {
+            builder.appendPath(segments.get(i));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deleted pets of {@link PetProvider}, and their removal from the database.
+ *
+ * Deleting a pet only sets its {@link #COLUMN_DELETED_AT}, which hides it from every query at
+ * once; until it's purged, {@link PetContract#METHOD_RESTORE} brings it back. The compactor
+ * purges the pets deleted more than {@link PetContract#RESTORE_WINDOW_MILLIS} ago in the
+ * background, {@link #BATCH_SIZE} at a time, so no transaction holds the database for long. The
+ * triggers of the pets table run then: the full-text index, photos and such only go with the
+ * purge. So does the pet's change log, once the sync has read it, see {@link PetSyncStore}.
+ *
+ * Freed pages are handed back to the file system with incremental vacuum, at most
+ * {@link #VACUUM_PAGES} at a time, so the file shrinks without ever rewriting it whole. A
+ * database created before incremental vacuum is switched once by {@link PetDbHelper} when it's
+ * upgraded; until then, its free pages are only reused.
+ */
+class PetCompactor {
+
+    private static final String LOG_TAG = PetCompactor.class.getSimpleName();
+
+    /** Time the pet was deleted in milliseconds since the epoch, 0 while it isn't */
+    static final String COLUMN_DELETED_AT = "deleted_at";
+
+    /**
+     * Selection of the pets that aren't deleted. The + keeps SQLite from reading the index on
+     * {@link #COLUMN_DELETED_AT}, which would hold nearly every pet.
+     */
+    static final String SQL_NOT_DELETED = "+" + COLUMN_DELETED_AT + " = 0";
+
+    /** Pets purged per transaction */
+    static final int BATCH_SIZE = 200;
+
+    /** Pages freed per incremental vacuum step */
+    static final int VACUUM_PAGES = 256;
+
+    /** Value of PRAGMA auto_vacuum for incremental vacuum */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /** Runs the compactions, one database at a time so they don't compete for the disk */
+    private static final ScheduledExecutorService sExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final PetDbHelper mDbHelper;
+    private final PetPhotoStore mPhotoStore;
+
+    /** Next compaction, null if none is scheduled. Guarded by this. */
+    private ScheduledFuture<?> mScheduled;
+
+    /** Time the next compaction runs at, guarded by this */
+    private long mScheduledAt;
+
+    private final Runnable mCompact = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PetCompactor.this) {
+                mScheduled = null;
+            }
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                // Closed under it, or out of space; the tombstones stay for the next run.
+                Log.w(LOG_TAG, "Compaction failed", e);
+            }
+        }
+    };
+
+    PetCompactor(PetDbHelper dbHelper, PetPhotoStore photoStore) {
+        mDbHelper = dbHelper;
+        mPhotoStore = photoStore;
+    }
+
+    /**
+     * Schedules a compaction for when the pets deleted now can no longer be restored, unless one
+     * comes before.
+     */
+    void scheduleAfterDelete() {
+        schedule(PetContract.RESTORE_WINDOW_MILLIS);
+    }
+
+    /**
+     * Schedules a compaction in the given time, unless one comes before.
+     */
+    synchronized void schedule(long delayMillis) {
+        long at = System.currentTimeMillis() + delayMillis;
+        if (mScheduled != null && mScheduledAt <= at) {
+            return;
+        }
+        if (mScheduled != null) {
+            mScheduled.cancel(false);
+        }
+        mScheduled = sExecutor.schedule(mCompact, delayMillis, TimeUnit.MILLISECONDS);
+        mScheduledAt = at;
+    }
+
+    /**
+     * Cancels the next compaction, the database is about to close.
+     */
+    synchronized void cancel() {
+        if (mScheduled != null) {
+            mScheduled.cancel(false);
+            mScheduled = null;
+        }
+    }
+
+    /**
+     * Purges the pets that can no longer be restored, then frees the pages they took. Schedules
+     * the next compaction for the oldest pet still deleted.
+     */
+    void compact() {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        long purgeBefore = System.currentTimeMillis() - PetContract.RESTORE_WINDOW_MILLIS;
+
+        int rowsPurged = 0;
+        int batch;
+        do {
+            batch = database.delete(PetEntry.TABLE_NAME, PetEntry._ID + " IN (SELECT "
+                    + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " WHERE "
+                    + COLUMN_DELETED_AT + " BETWEEN 1 AND ? ORDER BY " + COLUMN_DELETED_AT
+                    + " LIMIT " + BATCH_SIZE + ")", new String[] { String.valueOf(purgeBefore) });
+            rowsPurged += batch;
+        } while (batch == BATCH_SIZE);
+
+        if (rowsPurged != 0) {
+            mPhotoStore.purgeTrash(database);
+            vacuum(database);
+            Log.i(LOG_TAG, "Purged " + rowsPurged + " deleted pets");
+        }
+
+        long oldest = queryLong(database, "SELECT MIN(" + COLUMN_DELETED_AT + ") FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + COLUMN_DELETED_AT + " > 0");
+        if (oldest != 0) {
+            schedule(Math.max(0, oldest + PetContract.RESTORE_WINDOW_MILLIS
+                    - System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Frees the empty pages of the file, a few at a time. Does nothing on a database without
+     * incremental vacuum.
+     */
+    private static void vacuum(SQLiteDatabase database) {
+        long freePages = queryLong(database, "PRAGMA freelist_count");
+        if (freePages == 0) {
+            return;
+        }
+        if (queryLong(database, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // A full vacuum would hold the database for as long as it copies the file.
+            return;
+        }
+        while (freePages > 0) {
+            queryLong(database, "PRAGMA incremental_vacuum(" + VACUUM_PAGES + ")");
+            long left = queryLong(database, "PRAGMA freelist_count");
+            if (left >= freePages) {
+                // Nothing freed, the next compaction tries again.
+                break;
+            }
+            freePages = left;
+        }
+    }
+
+    /**
+     * Runs a query returning a number, or a pragma that may return rows, and returns the first
+     * column of the first row, 0 if there's none.
+     */
+    private static long queryLong(SQLiteDatabase database, String sql) {
+        Cursor cursor = database.rawQuery(sql, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -15,6 +16,73 @@ public final class PetContract {
     public static final String CONTENT_AUTHORITY = "com.example.android.pets";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PETS = "pets";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_EXPORT = "export";
+    public static final String PATH_CHANGES = "changes";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_PHOTO = "photo";
+    public static final String PATH_SHELTERS = "shelters";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that returns the hit and miss counts
+     * of the provider's cache of single pets, under {@link #KEY_CACHE_HITS} and
+     * {@link #KEY_CACHE_MISSES}.
+     */
+    public static final String METHOD_CACHE_STATS = "cache_stats";
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that deletes at most as many pets
+     * as given in its argument, in one transaction, and returns how many under
+     * {@link #KEY_ROWS_DELETED}. No change is notified, so a caller deleting many chunks notifies
+     * {@link PetEntry#CONTENT_URI} once it's done. Like any deleted pets, they can be restored
+     * with {@link #METHOD_RESTORE}.
+     */
+    public static final String METHOD_DELETE_CHUNK = "delete_chunk";
+    public static final String KEY_ROWS_DELETED = "rows_deleted";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that brings back the pets deleted
+     * at or after the time given in its argument, in milliseconds since the epoch, and returns
+     * how many under {@link #KEY_ROWS_RESTORED}. To undo a delete, note the time before it and
+     * restore from then; pets deleted by others meanwhile come back too.
+     *
+     * Deleted pets can be restored for {@link #RESTORE_WINDOW_MILLIS} after their delete, then
+     * they're purged for good.
+     */
+    public static final String METHOD_RESTORE = "restore";
+    public static final String KEY_ROWS_RESTORED = "rows_restored";
+    public static final long RESTORE_WINDOW_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that returns the provider's call
+     * metrics since the process started, as a list of bundles under {@link #KEY_METRICS}. There's
+     * one bundle per operation and route called, with the keys below; times are in microseconds
+     * and the percentiles are upper bounds. Bucket i of {@link #KEY_METRIC_HISTOGRAM} counts the
+     * calls that took less than 2^i microseconds.
+     */
+    public static final String METHOD_METRICS = "metrics";
+    public static final String KEY_METRICS = "metrics";
+    public static final String KEY_METRIC_OPERATION = "operation";
+    public static final String KEY_METRIC_ROUTE = "route";
+    public static final String KEY_METRIC_COUNT = "count";
+    public static final String KEY_METRIC_ROWS = "rows";
+    public static final String KEY_METRIC_TOTAL_MICROS = "total_us";
+    public static final String KEY_METRIC_MAX_MICROS = "max_us";
+    public static final String KEY_METRIC_P50_MICROS = "p50_us";
+    public static final String KEY_METRIC_P90_MICROS = "p90_us";
+    public static final String KEY_METRIC_P99_MICROS = "p99_us";
+    public static final String KEY_METRIC_HISTOGRAM = "histogram";
+
+    /**
+     * Method for {@link android.content.ContentResolver#call} that returns how SQLite would run
+     * the page query of the {@link PetEntry#CONTENT_URI} given in its argument, see
+     * {@link PetListQuery#buildPageUri}. The plan's steps are under {@link #KEY_QUERY_PLAN}, a
+     * step that reads every pet says "SCAN" without "USING INDEX", and a sort says "TEMP B-TREE".
+     */
+    public static final String METHOD_QUERY_PLAN = "query_plan";
+    public static final String KEY_QUERY_PLAN = "query_plan";
 
     private PetContract(){};
 
@@ -22,14 +90,116 @@ public final class PetContract {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * Full-text search over the pets' name and breed. Append the text to look for, see
+         * {@link #buildSearchUri(String)}.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * Every pet as a CSV or JSON stream, to be opened with
+         * {@link ContentResolver#openTypedAssetFileDescriptor} and {@link #MIME_TYPE_CSV} or
+         * {@link #MIME_TYPE_JSON}, or with {@link ContentResolver#openInputStream} for CSV.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        public static final String MIME_TYPE_CSV = "text/csv";
+        public static final String MIME_TYPE_JSON = "application/json";
+
         public static final String TABLE_NAME = "pets";
 
+        /**
+         * Full-text index over {@link #COLUMN_NAME} and {@link #COLUMN_BREED}. Its docid is the
+         * {@link #_ID} of the pet, and triggers keep it in sync with {@link #TABLE_NAME}.
+         */
+        public static final String FTS_TABLE_NAME = "pets_fts";
+
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_NAME = "name";
         public static final String COLUMN_BREED = "breed";
         public static final String COLUMN_GENDER = "gender";
         public static final String COLUMN_WEIGHT = "weight";
 
+        /**
+         * File name of the pet's photo, or null if it has none. The photo itself is kept out of
+         * the database and read or written as a stream on {@link #buildPhotoUri(long)}; the
+         * column can't be set through an insert or an update. Every new photo gets a new name,
+         * so the name also tells when the photo changed.
+         */
+        public static final String COLUMN_PHOTO = "photo";
+
+        /** Type of the photos, see {@link #buildPhotoUri(long)} */
+        public static final String MIME_TYPE_PHOTO = "image/jpeg";
+
+        /**
+         * Query parameters for reading {@link #CONTENT_URI} one page at a time. Pages are keyed on
+         * {@link #_ID}: a page holds at most {@link #QUERY_PARAMETER_LIMIT} pets whose ID is greater
+         * than {@link #QUERY_PARAMETER_AFTER}, in ID order. The next page starts after the last ID
+         * of the previous one.
+         */
+        public static final String QUERY_PARAMETER_AFTER = "after";
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Query parameters for sorting and filtering {@link #CONTENT_URI}, see
+         * {@link PetListQuery}. The pets are sorted on {@link #QUERY_PARAMETER_SORT}, one of the
+         * SORT values, then on ID, and each sort is served by an index. Pages of a sorted list
+         * start after the pet given by {@link #QUERY_PARAMETER_AFTER} and, unless it was null,
+         * {@link #QUERY_PARAMETER_AFTER_VALUE}, its value in the sort column.
+         *
+         * The filters keep the pets of one gender, and the ones whose weight is within the given
+         * bounds, bounds included.
+         */
+        public static final String QUERY_PARAMETER_SORT = "sort";
+        public static final String QUERY_PARAMETER_AFTER_VALUE = "after_value";
+        public static final String QUERY_PARAMETER_GENDER = "gender";
+        public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+        public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+
+        /**
+         * Values for {@link #QUERY_PARAMETER_SORT}
+         */
+        public static final String SORT_ID = _ID;
+        public static final String SORT_NAME = COLUMN_NAME;
+        public static final String SORT_BREED = COLUMN_BREED;
+        public static final String SORT_WEIGHT = COLUMN_WEIGHT;
+
+        public static boolean isValidSort(String sort) {
+            return SORT_ID.equals(sort) || SORT_NAME.equals(sort) || SORT_BREED.equals(sort)
+                    || SORT_WEIGHT.equals(sort);
+        }
+
+        /**
+         * Builds the URI for the page of at most {@code limit} pets that come after {@code afterId}.
+         * Use 0 to get the first page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Builds the URI of the given pet's photo. Open it with
+         * {@link ContentResolver#openInputStream} to read the photo, or with
+         * {@link ContentResolver#openOutputStream} to replace it. A new photo takes the place of
+         * the old one once its stream is closed.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon().appendPath(PATH_PHOTO)
+                    .build();
+        }
+
+        /**
+         * Builds the URI that searches for pets whose name or breed has words starting with the
+         * words in {@code query}. Results come with the best matches first, and
+         * {@link #QUERY_PARAMETER_LIMIT} can be used to cap their number.
+         */
+        public static Uri buildSearchUri(String query) {
+            return CONTENT_SEARCH_URI.buildUpon().appendPath(query).build();
+        }
+
         /**
          * The MIME type of the {@link #CONTENT_URI } for a list of pets.
          */
@@ -56,4 +226,136 @@ public final class PetContract {
         }
 
     }
+
+    /**
+     * Log of the changes made to the pets, filled by triggers. Every change gets a new, higher
+     * version, and only the latest change of each pet is kept, so the log never holds more than
+     * one row per pet.
+     *
+     * Query {@link #buildChangesUri(long)} with the highest version seen so far to get the pets
+     * changed since then, in version order. Each row has the change columns below plus the
+     * current {@link PetEntry} columns of the pet, which are null if it was deleted.
+     *
+     * The change of a deleted pet stays in the log once the pet is purged, after
+     * {@link PetContract#RESTORE_WINDOW_MILLIS}, until the app's sync has read it, then it goes:
+     * a reader further behind than that misses the delete.
+     */
+    public static abstract class PetChangeEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        public static final String TABLE_NAME = "pet_changes";
+
+        /** Version of the change, increasing with every change */
+        public static final String COLUMN_VERSION = "version";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_OPERATION = "operation";
+        /** Time of the change, in milliseconds since the epoch */
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+
+        /** Query parameter with the version after which changes are returned */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * Values for operation
+         */
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_CHANGES;
+
+        /**
+         * Builds the URI for the changes with a version greater than {@code sinceVersion}.
+         * Use 0 to get every pet.
+         */
+        public static Uri buildChangesUri(long sinceVersion) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(sinceVersion))
+                    .build();
+        }
+
+        /**
+         * Builds the URI for at most {@code limit} changes with a version greater than
+         * {@code sinceVersion}. The next ones start after the last version returned.
+         */
+        public static Uri buildChangesUri(long sinceVersion, int limit) {
+            return buildChangesUri(sinceVersion).buildUpon()
+                    .appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Statistics of the pets, kept up to date by triggers so reading them doesn't depend on the
+     * number of pets. {@link #CONTENT_URI} returns a single row with the columns below.
+     */
+    public static abstract class PetStatsEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /** Table with the count, total and maximum weight of the pets of each gender */
+        public static final String TABLE_NAME = "pet_stats";
+
+        public static final String COLUMN_PET_COUNT = "pet_count";
+        public static final String COLUMN_UNKNOWN_COUNT = "unknown_count";
+        public static final String COLUMN_MALE_COUNT = "male_count";
+        public static final String COLUMN_FEMALE_COUNT = "female_count";
+        /** Average weight in kg, 0 when there are no pets */
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+        /** Maximum weight in kg, 0 when there are no pets */
+        public static final String COLUMN_MAX_WEIGHT = "max_weight";
+
+        /** Sum of the weights, in {@link #TABLE_NAME} only */
+        public static final String COLUMN_TOTAL_WEIGHT = "total_weight";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_STATS;
+    }
+    /**
+     * Pets of the other shelters. Each shelter has its own database file, so the pets of one
+     * shelter can be written while another's are read, without waiting on each other. A shelter's
+     * database is created by the first access to it, and closed once it's been idle for a while.
+     *
+     * {@link #buildPetsUri(long)} and {@link #buildPetUri(long, long)} work like
+     * {@link PetEntry#CONTENT_URI} and its pet URIs, including the paging and sorting query
+     * parameters, on one shelter. {@link #CONTENT_PETS_URI} lists the pets of every shelter,
+     * one shelter after the other, each in the order asked for; add {@link #COLUMN_SHELTER_ID}
+     * to the projection to tell them apart. The pets of {@link PetEntry#CONTENT_URI} are the app's
+     * own and aren't part of any shelter.
+     */
+    public static abstract class PetShelterEntry {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SHELTERS);
+
+        /** The pets of every shelter, for queries only */
+        public static final Uri CONTENT_PETS_URI = Uri.withAppendedPath(CONTENT_URI, PATH_PETS);
+
+        /** ID of the shelter of each pet, in {@link #CONTENT_PETS_URI} only */
+        public static final String COLUMN_SHELTER_ID = "shelter_id";
+
+        /**
+         * Builds the URI of the pets of the given shelter. Shelter IDs are 0 or more.
+         */
+        public static Uri buildPetsUri(long shelterId) {
+            return ContentUris.withAppendedId(CONTENT_URI, shelterId).buildUpon()
+                    .appendPath(PATH_PETS).build();
+        }
+
+        /**
+         * Builds the URI of a pet of the given shelter.
+         */
+        public static Uri buildPetUri(long shelterId, long petId) {
+            return ContentUris.withAppendedId(buildPetsUri(shelterId), petId);
+        }
+    }
 }
@@ -0,0 +1,90 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Reads pets from a cursor over the {@link PetEntry#TABLE_NAME} columns. The column indices are
+ * looked up once, when the mapper is created, instead of by name for every row; create one
+ * mapper per cursor and keep it as long as the cursor.
+ *
+ * The getters read the cursor's current row. Columns missing from the cursor's projection read
+ * as null or 0.
+ */
+public final class PetCursorMapper {
+
+    private final Cursor mCursor;
+    private final int mIdColumn;
+    private final int mNameColumn;
+    private final int mBreedColumn;
+    private final int mGenderColumn;
+    private final int mWeightColumn;
+    private final int mPhotoColumn;
+
+    public PetCursorMapper(Cursor cursor) {
+        mCursor = cursor;
+        mIdColumn = cursor.getColumnIndex(PetEntry._ID);
+        mNameColumn = cursor.getColumnIndex(PetEntry.COLUMN_NAME);
+        mBreedColumn = cursor.getColumnIndex(PetEntry.COLUMN_BREED);
+        mGenderColumn = cursor.getColumnIndex(PetEntry.COLUMN_GENDER);
+        mWeightColumn = cursor.getColumnIndex(PetEntry.COLUMN_WEIGHT);
+        mPhotoColumn = cursor.getColumnIndex(PetEntry.COLUMN_PHOTO);
+    }
+
+    /**
+     * Returns the cursor this mapper reads from.
+     */
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    public long getId() {
+        return mIdColumn != -1 ? mCursor.getLong(mIdColumn) : Pet.NO_ID;
+    }
+
+    public String getName() {
+        return mNameColumn != -1 ? mCursor.getString(mNameColumn) : null;
+    }
+
+    public String getBreed() {
+        return mBreedColumn != -1 ? mCursor.getString(mBreedColumn) : null;
+    }
+
+    public int getGender() {
+        return mGenderColumn != -1 ? mCursor.getInt(mGenderColumn) : PetEntry.GENDER_UNKNOWN;
+    }
+
+    public int getWeight() {
+        return mWeightColumn != -1 ? mCursor.getInt(mWeightColumn) : 0;
+    }
+
+    public String getPhoto() {
+        return mPhotoColumn != -1 ? mCursor.getString(mPhotoColumn) : null;
+    }
+
+    /**
+     * Returns the pet in the current row.
+     */
+    public Pet toPet() {
+        return new Pet(getId(), getName(), getBreed(), getGender(), getWeight(), getPhoto());
+    }
+
+    /**
+     * Copies the ID of every row into {@code ids}, from the first row, and puts the cursor back
+     * where it was. Stops when either the cursor or the array ends.
+     *
+     * @return the number of IDs copied
+     */
+    public int fillIds(long[] ids) {
+        int position = mCursor.getPosition();
+        int count = 0;
+        if (ids.length > 0 && mCursor.moveToFirst()) {
+            do {
+                ids[count++] = getId();
+            } while (count < ids.length && mCursor.moveToNext());
+        }
+        mCursor.moveToPosition(position);
+        return count;
+    }
+}
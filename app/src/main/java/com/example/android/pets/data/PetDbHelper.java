@@ -17,13 +17,26 @@ package com.example.android.pets.data;
  */
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.util.Locale;
 
 /**
  * Database helper for Pets app. Manages database creation and version management.
+ *
+ * There's a single instance per process, see {@link #getInstance(Context)}. It keeps one
+ * long-lived connection to the database in write-ahead logging mode, so readers don't block on
+ * a write in progress and nobody has to reopen the file after each statement.
  */
 public class PetDbHelper extends SQLiteOpenHelper {
 
@@ -33,17 +46,394 @@ public class PetDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "shelter.db";
 
     /**
-     * Database version. If you change the database schema, you must increment the database version.
+     * Version from which every database frees its pages with incremental vacuum, see
+     * {@link #onOpen}
+     */
+    private static final int INCREMENTAL_VACUUM_VERSION = 10;
+
+    /**
+     * Schema history after version 1, in order. To change the schema, add a migration at the end
+     * with the next version number; the database version follows.
+     */
+    private static final PetMigration[] MIGRATIONS = {
+            new PetMigration(2, "full-text index over name and breed") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE VIRTUAL TABLE " + PetEntry.FTS_TABLE_NAME + " USING fts4("
+                            + PetEntry.COLUMN_NAME + ", " + PetEntry.COLUMN_BREED + ");");
+
+                    db.execSQL("CREATE TRIGGER " + PetEntry.FTS_TABLE_NAME + "_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " BEGIN "
+                            + "INSERT INTO " + PetEntry.FTS_TABLE_NAME + " (docid, " + PetEntry.COLUMN_NAME
+                            + ", " + PetEntry.COLUMN_BREED + ") VALUES (new." + PetEntry._ID + ", new."
+                            + PetEntry.COLUMN_NAME + ", new." + PetEntry.COLUMN_BREED + "); END;");
+
+                    db.execSQL("CREATE TRIGGER " + PetEntry.FTS_TABLE_NAME + "_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_NAME + ", " + PetEntry.COLUMN_BREED + " ON "
+                            + PetEntry.TABLE_NAME + " BEGIN "
+                            + "UPDATE " + PetEntry.FTS_TABLE_NAME + " SET " + PetEntry.COLUMN_NAME + " = new."
+                            + PetEntry.COLUMN_NAME + ", " + PetEntry.COLUMN_BREED + " = new."
+                            + PetEntry.COLUMN_BREED + " WHERE docid = old." + PetEntry._ID + "; END;");
+
+                    db.execSQL("CREATE TRIGGER " + PetEntry.FTS_TABLE_NAME + "_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " BEGIN "
+                            + "DELETE FROM " + PetEntry.FTS_TABLE_NAME + " WHERE docid = old."
+                            + PetEntry._ID + "; END;");
+
+                    // Index the pets that are already there
+                    db.execSQL("INSERT INTO " + PetEntry.FTS_TABLE_NAME + " (docid, "
+                            + PetEntry.COLUMN_NAME + ", " + PetEntry.COLUMN_BREED + ") SELECT "
+                            + PetEntry._ID + ", " + PetEntry.COLUMN_NAME + ", " + PetEntry.COLUMN_BREED
+                            + " FROM " + PetEntry.TABLE_NAME);
+                }
+            },
+            new PetMigration(3, "indexes on name, breed and (gender, weight)") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_name_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_NAME + ");");
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_breed_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_BREED + ");");
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_gender_weight_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_GENDER + ", "
+                            + PetEntry.COLUMN_WEIGHT + ");");
+                }
+            },
+            new PetMigration(4, "change log") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + PetChangeEntry.TABLE_NAME + " ("
+                            + PetChangeEntry.COLUMN_VERSION + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                            + PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL, "
+                            + PetChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL, "
+                            + PetChangeEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL);");
+                    db.execSQL("CREATE INDEX " + PetChangeEntry.TABLE_NAME + "_pet_id_index ON "
+                            + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID + ");");
+
+                    createChangeTrigger(db, "INSERT", "new", PetChangeEntry.OPERATION_INSERT);
+                    createChangeTrigger(db, "UPDATE", "new", PetChangeEntry.OPERATION_UPDATE);
+                    createChangeTrigger(db, "DELETE", "old", PetChangeEntry.OPERATION_DELETE);
+
+                    // The pets that are already there count as inserted.
+                    db.execSQL("INSERT INTO " + PetChangeEntry.TABLE_NAME + " ("
+                            + PetChangeEntry.COLUMN_PET_ID + ", " + PetChangeEntry.COLUMN_OPERATION
+                            + ", " + PetChangeEntry.COLUMN_CHANGED_AT + ") SELECT " + PetEntry._ID
+                            + ", " + PetChangeEntry.OPERATION_INSERT + ", " + SQL_NOW_MILLIS
+                            + " FROM " + PetEntry.TABLE_NAME + " ORDER BY " + PetEntry._ID);
+                }
+            },
+            new PetMigration(5, "sync links") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + PetSyncStore.TABLE_NAME + " ("
+                            + PetSyncStore.COLUMN_PET_ID + " INTEGER PRIMARY KEY, "
+                            + PetSyncStore.COLUMN_REMOTE_ID + " TEXT NOT NULL UNIQUE, "
+                            + PetSyncStore.COLUMN_REMOTE_VERSION + " INTEGER NOT NULL, "
+                            + PetEntry.COLUMN_NAME + " TEXT NOT NULL, "
+                            + PetEntry.COLUMN_BREED + " TEXT, "
+                            + PetEntry.COLUMN_GENDER + " INTEGER NOT NULL, "
+                            + PetEntry.COLUMN_WEIGHT + " INTEGER NOT NULL);");
+                }
+            },
+            new PetMigration(6, "pet statistics") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + PetStatsEntry.TABLE_NAME + " ("
+                            + PetEntry.COLUMN_GENDER + " INTEGER PRIMARY KEY, "
+                            + PetStatsEntry.COLUMN_PET_COUNT + " INTEGER NOT NULL, "
+                            + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL, "
+                            + PetStatsEntry.COLUMN_MAX_WEIGHT + " INTEGER NOT NULL);");
+
+                    // One row per gender, counting the pets that are already there.
+                    int[] genders = {
+                            PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE
+                    };
+                    for (int gender : genders) {
+                        db.execSQL("INSERT INTO " + PetStatsEntry.TABLE_NAME + " SELECT " + gender
+                                + ", COUNT(*), IFNULL(SUM(" + PetEntry.COLUMN_WEIGHT + "), 0), "
+                                + "IFNULL(MAX(" + PetEntry.COLUMN_WEIGHT + "), 0) FROM "
+                                + PetEntry.TABLE_NAME + " WHERE " + PetEntry.COLUMN_GENDER + " = "
+                                + gender);
+                    }
+
+                    db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_insert AFTER INSERT ON "
+                            + PetEntry.TABLE_NAME + " BEGIN " + SQL_STATS_ADD_NEW + " END;");
+                    db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_GENDER + ", " + PetEntry.COLUMN_WEIGHT + " ON "
+                            + PetEntry.TABLE_NAME + " BEGIN " + SQL_STATS_REMOVE_OLD + " "
+                            + SQL_STATS_ADD_NEW + " END;");
+                    db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " BEGIN " + SQL_STATS_REMOVE_OLD + " END;");
+                }
+            },
+            new PetMigration(7, "catalog sort and filter indexes") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Sort by weight; by name and breed use the indexes of version 3.
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_weight_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_WEIGHT + ");");
+                    // Each sort within one gender; by weight uses the gender and weight index.
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_gender_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_GENDER + ");");
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_gender_name_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_GENDER + ", "
+                            + PetEntry.COLUMN_NAME + ");");
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_gender_breed_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_GENDER + ", "
+                            + PetEntry.COLUMN_BREED + ");");
+                }
+            },
+            new PetMigration(8, "pet photos") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Only the file name, the photos are files, see PetPhotoStore.
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetEntry.COLUMN_PHOTO + " TEXT;");
+
+                    // The files of the photos replaced or purged, for PetPhotoStore to delete.
+                    String trash = PetPhotoStore.TRASH_TABLE_NAME;
+                    db.execSQL("CREATE TABLE " + trash + " ("
+                            + PetEntry.COLUMN_PHOTO + " TEXT PRIMARY KEY);");
+                    db.execSQL("CREATE TRIGGER " + trash + "_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " WHEN old." + PetEntry.COLUMN_PHOTO + " IS NOT NULL BEGIN "
+                            + "INSERT OR IGNORE INTO " + trash + " VALUES (old."
+                            + PetEntry.COLUMN_PHOTO + "); END;");
+                    db.execSQL("CREATE TRIGGER " + trash + "_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_PHOTO + " ON " + PetEntry.TABLE_NAME + " WHEN old."
+                            + PetEntry.COLUMN_PHOTO + " IS NOT NULL AND old." + PetEntry.COLUMN_PHOTO
+                            + " IS NOT new." + PetEntry.COLUMN_PHOTO + " BEGIN "
+                            + "INSERT OR IGNORE INTO " + trash + " VALUES (old."
+                            + PetEntry.COLUMN_PHOTO + "); END;");
+                }
+            },
+            new PetMigration(9, "soft delete") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + PetEntry.TABLE_NAME + " ADD COLUMN "
+                            + PetCompactor.COLUMN_DELETED_AT + " INTEGER NOT NULL DEFAULT 0;");
+                    db.execSQL("CREATE INDEX " + PetEntry.TABLE_NAME + "_deleted_at_index ON "
+                            + PetEntry.TABLE_NAME + " (" + PetCompactor.COLUMN_DELETED_AT + ");");
+
+                    // A deleted pet leaves the statistics and the change log when it's deleted,
+                    // not again when it's purged.
+                    db.execSQL("DROP TRIGGER " + PetStatsEntry.TABLE_NAME + "_update;");
+                    db.execSQL("DROP TRIGGER " + PetStatsEntry.TABLE_NAME + "_delete;");
+                    db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_update AFTER UPDATE OF "
+                            + PetEntry.COLUMN_GENDER + ", " + PetEntry.COLUMN_WEIGHT + ", "
+                            + PetCompactor.COLUMN_DELETED_AT + " ON " + PetEntry.TABLE_NAME + " BEGIN "
+                            + SQL_STATS_REMOVE_OLD_NOT_DELETED + " " + SQL_STATS_ADD_NEW_NOT_DELETED
+                            + " END;");
+                    db.execSQL("CREATE TRIGGER " + PetStatsEntry.TABLE_NAME + "_delete AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " WHEN old." + PetCompactor.COLUMN_DELETED_AT
+                            + " = 0 BEGIN " + SQL_STATS_REMOVE_OLD_NOT_DELETED + " END;");
+
+                    db.execSQL("DROP TRIGGER " + PetChangeEntry.TABLE_NAME + "_update;");
+                    db.execSQL("DROP TRIGGER " + PetChangeEntry.TABLE_NAME + "_delete;");
+                    createChangeTrigger(db, "UPDATE", null, "new", SQL_UPDATE_OPERATION);
+                    createChangeTrigger(db, "DELETE", "old." + PetCompactor.COLUMN_DELETED_AT + " = 0",
+                            "old", String.valueOf(PetChangeEntry.OPERATION_DELETE));
+                }
+            },
+            new PetMigration(INCREMENTAL_VACUUM_VERSION, "incremental vacuum") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Only takes once the file is rewritten, which VACUUM can't do in the upgrade
+                    // transaction: onOpen does it right after.
+                    execPragma(db, "auto_vacuum = INCREMENTAL");
+                }
+            },
+            new PetMigration(11, "sync cursors") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE " + PetSyncStore.CURSORS_TABLE_NAME + " ("
+                            + PetSyncStore.COLUMN_CURSOR_NAME + " TEXT PRIMARY KEY, "
+                            + PetSyncStore.COLUMN_CHANGE_VERSION + " INTEGER NOT NULL);");
+
+                    // A database that was synced keeps its log until the engine saves where it
+                    // is, which it did in its preferences so far.
+                    if (DatabaseUtils.queryNumEntries(db, PetSyncStore.TABLE_NAME) > 0) {
+                        db.execSQL("INSERT INTO " + PetSyncStore.CURSORS_TABLE_NAME + " VALUES ('"
+                                + PetSyncEngine.CURSOR_PUSHED + "', 0);");
+                    }
+
+                    // Changes every cursor has read, all of them with no cursor
+                    String passedByCursors = PetChangeEntry.COLUMN_VERSION + " <= IFNULL((SELECT MIN("
+                            + PetSyncStore.COLUMN_CHANGE_VERSION + ") FROM "
+                            + PetSyncStore.CURSORS_TABLE_NAME + "), " + PetChangeEntry.COLUMN_VERSION
+                            + ")";
+
+                    // The changes of the pets purged so far that no cursor needs go now. Those of
+                    // a pet purged later go with it, or when the last cursor reads them, see
+                    // PetSyncStore.putCursor.
+                    db.execSQL("DELETE FROM " + PetChangeEntry.TABLE_NAME + " WHERE "
+                            + PetChangeEntry.COLUMN_PET_ID + " NOT IN (SELECT " + PetEntry._ID
+                            + " FROM " + PetEntry.TABLE_NAME + ") AND " + passedByCursors + ";");
+                    db.execSQL("CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_purge AFTER DELETE ON "
+                            + PetEntry.TABLE_NAME + " WHEN old." + PetCompactor.COLUMN_DELETED_AT
+                            + " != 0 BEGIN DELETE FROM " + PetChangeEntry.TABLE_NAME + " WHERE "
+                            + PetChangeEntry.COLUMN_PET_ID + " = old." + PetEntry._ID + " AND "
+                            + passedByCursors + "; END;");
+                }
+            }
+    };
+
+    /**
+     * Database version. It's the version of the last migration, see {@link #MIGRATIONS}.
+     */
+    static final int DATABASE_VERSION = MIGRATIONS[MIGRATIONS.length - 1].getVersion();
+
+    static {
+        // Migrations must follow each other without gaps, starting from version 2.
+        for (int i = 0; i < MIGRATIONS.length; i++) {
+            if (MIGRATIONS[i].getVersion() != i + 2) {
+                throw new IllegalStateException("Migration " + MIGRATIONS[i].getDescription()
+                        + " has version " + MIGRATIONS[i].getVersion() + ", expected " + (i + 2));
+            }
+        }
+    }
+
+    /**
+     * Upper bound for the WAL file once it's been checkpointed, so it doesn't keep the size of the
+     * biggest transaction ever run.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final long JOURNAL_SIZE_LIMIT = 512 * 1024;
+
+    private static PetDbHelper sInstance;
+
+    /** Set by an upgrade from before {@link #INCREMENTAL_VACUUM_VERSION}, see {@link #onOpen} */
+    private boolean mSwitchToIncrementalVacuum;
+
+    /**
+     * Returns the shared {@link PetDbHelper}. The database itself is only opened the first time
+     * {@link #getReadableDatabase()} or {@link #getWritableDatabase()} is called, and stays open
+     * for the life of the process.
+     *
+     * @param context of the app
+     */
+    public static synchronized PetDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
 
     /**
      * Constructs a new instance of {@link PetDbHelper}.
      *
      * @param context of the app
      */
-    public PetDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    private PetDbHelper(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Constructs a helper for a database other than the app's, for {@link PetBenchmark}.
+     *
+     * @param name of the database file
+     */
+    PetDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Returns the database, opening it the first time. In debug builds, reports being called on
+     * the main thread to {@link PetMainThreadGuard}.
+     */
+    @Override
+    public SQLiteDatabase getWritableDatabase() {
+        if (BuildConfig.DEBUG) {
+            PetMainThreadGuard.check();
+        }
+        return super.getWritableDatabase();
+    }
+
+    /**
+     * Same as {@link #getWritableDatabase()}, the database is opened for writing anyway.
+     */
+    @Override
+    public SQLiteDatabase getReadableDatabase() {
+        if (BuildConfig.DEBUG) {
+            PetMainThreadGuard.check();
+        }
+        return super.getReadableDatabase();
+    }
+
+    /**
+     * Called when the connection is being configured, before the schema is created or upgraded.
+     * Only called on Jelly Bean and above, older versions are configured in {@link #onOpen}.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        configure(db);
+    }
+
+    /**
+     * Called once the database is created or upgraded. After an upgrade from before
+     * {@link #INCREMENTAL_VACUUM_VERSION}, rewrites the whole file once so it can be shrunk by
+     * {@link PetCompactor} a few pages at a time from then on. That's the only full vacuum the
+     * database ever goes through; it takes as long as copying the file, and is logged.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            configure(db);
+        }
+        if (mSwitchToIncrementalVacuum) {
+            mSwitchToIncrementalVacuum = false;
+            switchToIncrementalVacuum(db);
+        }
+    }
+
+    /**
+     * Rewrites the database with incremental vacuum, unless it already has it.
+     */
+    private static void switchToIncrementalVacuum(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA auto_vacuum", null);
+        try {
+            if (cursor.moveToFirst() && cursor.getInt(0) == PetCompactor.AUTO_VACUUM_INCREMENTAL) {
+                return;
+            }
+        }
+        finally {
+            cursor.close();
+        }
+        Log.i(LOG_TAG, "Rewriting " + db.getPath() + " once to switch to incremental vacuum");
+        long start = System.currentTimeMillis();
+        execPragma(db, "auto_vacuum = INCREMENTAL");
+        db.execSQL("VACUUM");
+        Log.i(LOG_TAG, "Switched to incremental vacuum in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Turns on write-ahead logging and relaxes syncing to once per checkpoint, which is still
+     * safe against corruption in WAL mode.
+     */
+    private void configure(SQLiteDatabase db) {
+        if (db.isReadOnly()) {
+            return;
+        }
+        // Only takes on a new database, before its tables; older ones are switched in onOpen.
+        execPragma(db, "auto_vacuum = INCREMENTAL");
+        db.enableWriteAheadLogging();
+        execPragma(db, "synchronous = NORMAL");
+        execPragma(db, "journal_size_limit = " + JOURNAL_SIZE_LIMIT);
+    }
+
+    /**
+     * Runs a PRAGMA statement. Some of them return a row, which {@link SQLiteDatabase#execSQL}
+     * refuses, so they go through a query instead.
+     */
+    private static void execPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        }
+        finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -51,6 +441,14 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createSchema(db, DATABASE_VERSION);
+    }
+
+    /**
+     * Creates the schema of the given version in an empty database. Tests use it to make the
+     * databases of older versions.
+     */
+    static void createSchema(SQLiteDatabase db, int version) {
         // Create a String that contains the SQL statement to create the pets table
         String SQL_CREATE_PETS_TABLE =  "CREATE TABLE " + PetEntry.TABLE_NAME + " ("
                 + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -61,6 +459,106 @@ public class PetDbHelper extends SQLiteOpenHelper {
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_PETS_TABLE);
+
+        // Bring the version 1 schema up to date
+        migrate(db, 1, version);
+    }
+
+    /** Trigger statement counting the new row of the pets table in the statistics */
+    private static final String SQL_STATS_ADD_NEW = "UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+            + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1, "
+            + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " = " + PetStatsEntry.COLUMN_TOTAL_WEIGHT
+            + " + new." + PetEntry.COLUMN_WEIGHT + ", "
+            + PetStatsEntry.COLUMN_MAX_WEIGHT + " = MAX(" + PetStatsEntry.COLUMN_MAX_WEIGHT
+            + ", new." + PetEntry.COLUMN_WEIGHT + ") WHERE "
+            + PetEntry.COLUMN_GENDER + " = new." + PetEntry.COLUMN_GENDER + ";";
+
+    /**
+     * Trigger statement removing the old row of the pets table from the statistics. The maximum is
+     * only looked up again when the old row held it, through the gender and weight index.
+     */
+    private static final String SQL_STATS_REMOVE_OLD = "UPDATE " + PetStatsEntry.TABLE_NAME + " SET "
+            + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1, "
+            + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " = " + PetStatsEntry.COLUMN_TOTAL_WEIGHT
+            + " - old." + PetEntry.COLUMN_WEIGHT + ", "
+            + PetStatsEntry.COLUMN_MAX_WEIGHT + " = CASE WHEN old." + PetEntry.COLUMN_WEIGHT
+            + " < " + PetStatsEntry.COLUMN_MAX_WEIGHT + " THEN " + PetStatsEntry.COLUMN_MAX_WEIGHT
+            + " ELSE IFNULL((SELECT MAX(" + PetEntry.COLUMN_WEIGHT + ") FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_GENDER + " = old." + PetEntry.COLUMN_GENDER + "), 0) END"
+            + " WHERE " + PetEntry.COLUMN_GENDER + " = old." + PetEntry.COLUMN_GENDER + ";";
+
+    /** Same as {@link #SQL_STATS_ADD_NEW}, unless the new row is a deleted pet */
+    private static final String SQL_STATS_ADD_NEW_NOT_DELETED = "UPDATE " + PetStatsEntry.TABLE_NAME
+            + " SET " + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " + 1, "
+            + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " = " + PetStatsEntry.COLUMN_TOTAL_WEIGHT
+            + " + new." + PetEntry.COLUMN_WEIGHT + ", "
+            + PetStatsEntry.COLUMN_MAX_WEIGHT + " = MAX(" + PetStatsEntry.COLUMN_MAX_WEIGHT
+            + ", new." + PetEntry.COLUMN_WEIGHT + ") WHERE "
+            + PetEntry.COLUMN_GENDER + " = new." + PetEntry.COLUMN_GENDER
+            + " AND new." + PetCompactor.COLUMN_DELETED_AT + " = 0;";
+
+    /**
+     * Same as {@link #SQL_STATS_REMOVE_OLD}, unless the old row is a deleted pet. The maximum
+     * skips the deleted pets, reading the gender and weight index from the top down to the first
+     * pet that isn't.
+     */
+    private static final String SQL_STATS_REMOVE_OLD_NOT_DELETED = "UPDATE "
+            + PetStatsEntry.TABLE_NAME + " SET "
+            + PetStatsEntry.COLUMN_PET_COUNT + " = " + PetStatsEntry.COLUMN_PET_COUNT + " - 1, "
+            + PetStatsEntry.COLUMN_TOTAL_WEIGHT + " = " + PetStatsEntry.COLUMN_TOTAL_WEIGHT
+            + " - old." + PetEntry.COLUMN_WEIGHT + ", "
+            + PetStatsEntry.COLUMN_MAX_WEIGHT + " = CASE WHEN old." + PetEntry.COLUMN_WEIGHT
+            + " < " + PetStatsEntry.COLUMN_MAX_WEIGHT + " THEN " + PetStatsEntry.COLUMN_MAX_WEIGHT
+            + " ELSE IFNULL((SELECT " + PetEntry.COLUMN_WEIGHT + " FROM " + PetEntry.TABLE_NAME
+            + " WHERE " + PetEntry.COLUMN_GENDER + " = old." + PetEntry.COLUMN_GENDER + " AND "
+            + PetCompactor.SQL_NOT_DELETED + " ORDER BY " + PetEntry.COLUMN_WEIGHT
+            + " DESC LIMIT 1), 0) END"
+            + " WHERE " + PetEntry.COLUMN_GENDER + " = old." + PetEntry.COLUMN_GENDER
+            + " AND old." + PetCompactor.COLUMN_DELETED_AT + " = 0;";
+
+    /**
+     * Operation logged for an update of the pets table: deleting a pet logs a delete, restoring
+     * it an insert.
+     */
+    private static final String SQL_UPDATE_OPERATION = "CASE"
+            + " WHEN old." + PetCompactor.COLUMN_DELETED_AT + " = 0 AND new."
+            + PetCompactor.COLUMN_DELETED_AT + " != 0 THEN " + PetChangeEntry.OPERATION_DELETE
+            + " WHEN old." + PetCompactor.COLUMN_DELETED_AT + " != 0 AND new."
+            + PetCompactor.COLUMN_DELETED_AT + " = 0 THEN " + PetChangeEntry.OPERATION_INSERT
+            + " ELSE " + PetChangeEntry.OPERATION_UPDATE + " END";
+
+    /** SQL expression for the current time in milliseconds */
+    private static final String SQL_NOW_MILLIS = "CAST(strftime('%s', 'now') AS INTEGER) * 1000";
+
+    /**
+     * Creates the trigger that logs an operation on the pets table in the change log. The pet's
+     * earlier change is dropped, the new one supersedes it, which keeps the log compacted.
+     *
+     * @param operation SQL operation the trigger fires on
+     * @param row       "new" or "old", the row the pet ID is read from
+     * @param code      operation code stored in the log
+     */
+    private static void createChangeTrigger(SQLiteDatabase db, String operation, String row, int code) {
+        createChangeTrigger(db, operation, null, row, String.valueOf(code));
+    }
+
+    /**
+     * Same as {@link #createChangeTrigger(SQLiteDatabase, String, String, int)}, for a trigger
+     * that only fires when the condition holds, and whose operation code is an SQL expression.
+     *
+     * @param when condition of the trigger, or null to always fire
+     */
+    private static void createChangeTrigger(SQLiteDatabase db, String operation, String when,
+                                            String row, String code) {
+        db.execSQL("CREATE TRIGGER " + PetChangeEntry.TABLE_NAME + "_" + operation.toLowerCase(Locale.US)
+                + " AFTER " + operation + " ON " + PetEntry.TABLE_NAME
+                + (when != null ? " WHEN " + when : "") + " BEGIN "
+                + "DELETE FROM " + PetChangeEntry.TABLE_NAME + " WHERE "
+                + PetChangeEntry.COLUMN_PET_ID + " = " + row + "." + PetEntry._ID + "; "
+                + "INSERT INTO " + PetChangeEntry.TABLE_NAME + " (" + PetChangeEntry.COLUMN_PET_ID
+                + ", " + PetChangeEntry.COLUMN_OPERATION + ", " + PetChangeEntry.COLUMN_CHANGED_AT
+                + ") VALUES (" + row + "." + PetEntry._ID + ", " + code + ", " + SQL_NOW_MILLIS
+                + "); END;");
     }
 
     /**
@@ -68,6 +566,23 @@ public class PetDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        migrate(db, oldVersion, newVersion);
+        if (oldVersion < INCREMENTAL_VACUUM_VERSION) {
+            mSwitchToIncrementalVacuum = true;
+        }
+    }
+
+    /**
+     * Runs, in order, every migration after {@code fromVersion} up to {@code toVersion}.
+     */
+    private static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (PetMigration migration : MIGRATIONS) {
+            int version = migration.getVersion();
+            if (version > fromVersion && version <= toVersion) {
+                Log.i(LOG_TAG, "Migrating " + DATABASE_NAME + " to version " + version + ": "
+                        + migration.getDescription());
+                migration.migrate(db);
+            }
+        }
     }
 }
@@ -0,0 +1,167 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes every pet to the pipe opened by {@link PetProvider} for {@link PetEntry#CONTENT_EXPORT_URI},
+ * as CSV or JSON depending on the MIME type. It runs on a background thread.
+ *
+ * The table is read in keyset-paginated chunks of {@link #CHUNK_SIZE} rows rather than through one
+ * cursor: a cursor over the whole table would re-run its query and skip the rows already read
+ * every time its window refills. Memory use is the same whatever the number of pets.
+ */
+class PetExporter implements ContentProvider.PipeDataWriter<String> {
+
+    private static final String LOG_TAG = PetExporter.class.getSimpleName();
+
+    /** Number of pets read per query */
+    static final int CHUNK_SIZE = 1000;
+
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_NAME,
+            PetEntry.COLUMN_BREED,
+            PetEntry.COLUMN_GENDER,
+            PetEntry.COLUMN_WEIGHT
+    };
+
+    private final PetDbHelper mDbHelper;
+
+    PetExporter(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts,
+                                String format) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(output.getFileDescriptor())));
+        try {
+            if (PetEntry.MIME_TYPE_JSON.equals(format)) {
+                writeJson(writer);
+            }
+            else {
+                writeCsv(writer);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe early.
+            Log.w(LOG_TAG, "Export of " + uri + " stopped", e);
+        }
+    }
+
+    private void writeCsv(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write("\r\n");
+
+        long lastId = 0;
+        while (true) {
+            Cursor cursor = queryChunk(lastId);
+            try {
+                if (cursor.getCount() == 0) {
+                    return;
+                }
+                PetCursorMapper mapper = new PetCursorMapper(cursor);
+                while (cursor.moveToNext()) {
+                    lastId = mapper.getId();
+                    writer.write(Long.toString(lastId));
+                    writer.write(',');
+                    writeCsvField(writer, mapper.getName());
+                    writer.write(',');
+                    writeCsvField(writer, mapper.getBreed());
+                    writer.write(',');
+                    writer.write(Integer.toString(mapper.getGender()));
+                    writer.write(',');
+                    writer.write(Integer.toString(mapper.getWeight()));
+                    writer.write("\r\n");
+                }
+            }
+            finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Writes a CSV field, quoted if it holds a comma, a quote or a line break.
+     */
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private void writeJson(Writer writer) throws IOException {
+        JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+
+        long lastId = 0;
+        boolean done = false;
+        while (!done) {
+            Cursor cursor = queryChunk(lastId);
+            try {
+                done = cursor.getCount() == 0;
+                PetCursorMapper mapper = new PetCursorMapper(cursor);
+                while (cursor.moveToNext()) {
+                    lastId = mapper.getId();
+                    json.beginObject();
+                    json.name(PetEntry._ID).value(lastId);
+                    json.name(PetEntry.COLUMN_NAME).value(mapper.getName());
+                    json.name(PetEntry.COLUMN_BREED).value(mapper.getBreed());
+                    json.name(PetEntry.COLUMN_GENDER).value(mapper.getGender());
+                    json.name(PetEntry.COLUMN_WEIGHT).value(mapper.getWeight());
+                    json.endObject();
+                }
+            }
+            finally {
+                cursor.close();
+            }
+        }
+
+        json.endArray();
+        json.flush();
+    }
+
+    /**
+     * Returns the next {@link #CHUNK_SIZE} pets after the given ID.
+     */
+    private Cursor queryChunk(long afterId) {
+        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        return database.query(PetEntry.TABLE_NAME, COLUMNS,
+                PetEntry._ID + ">? AND " + PetCompactor.SQL_NOT_DELETED,
+                new String[] { String.valueOf(afterId) }, null, null, PetEntry._ID + " ASC",
+                String.valueOf(CHUNK_SIZE));
+    }
+}
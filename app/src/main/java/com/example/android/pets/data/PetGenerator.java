@@ -0,0 +1,198 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Random;
+
+/**
+ * Makes up pets for load tests: common pet names, breeds of cats and dogs as often as they're
+ * found in shelters, and weights spread around each breed's typical weight. A few pets have no
+ * breed or an unknown gender, like real entries.
+ *
+ * The pets only depend on the seed: two generators with the same seed make the same pets in the
+ * same order, so a dataset can be built again at will. The names are handed out in rounds, each
+ * name once per round in a shuffled order; from the second round on they get the round's number,
+ * which keeps them apart in large datasets.
+ */
+public class PetGenerator {
+
+    /**
+     * Receives the progress of {@link #insert}, on the thread inserting.
+     */
+    public interface Listener {
+
+        /**
+         * @return false to stop after the pets inserted so far
+         */
+        boolean onProgress(int rowsInserted, int rowsTotal);
+    }
+
+    /** Number of pets per bulk insert, see {@link #insert} */
+    public static final int CHUNK_SIZE = 1000;
+
+    private static final String[] NAMES = {
+            "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Milo", "Lola", "Buddy",
+            "Molly", "Rocky", "Sadie", "Bear", "Bailey", "Leo", "Stella", "Duke", "Chloe", "Tucker",
+            "Nala", "Oliver", "Zoe", "Jack", "Penny", "Toby", "Coco", "Oscar", "Rosie", "Simba",
+            "Ruby", "Loki", "Lily", "Teddy", "Gracie", "Jasper", "Willow", "Finn", "Pepper", "Toto"
+    };
+
+    /**
+     * A breed, with its share of the pets in tenths of a percent and the mean and spread of its
+     * weight in kg.
+     */
+    private static final class Breed {
+
+        final String name;
+        final int share;
+        final int meanWeight;
+        final int weightSpread;
+
+        Breed(String name, int share, int meanWeight, int weightSpread) {
+            this.name = name;
+            this.share = share;
+            this.meanWeight = meanWeight;
+            this.weightSpread = weightSpread;
+        }
+    }
+
+    /** The breeds, the last one is for pets of unknown breed */
+    private static final Breed[] BREEDS = {
+            new Breed("Domestic Shorthair", 220, 4, 1),
+            new Breed("Domestic Longhair", 60, 5, 1),
+            new Breed("Tabby", 70, 4, 1),
+            new Breed("Siamese", 30, 4, 1),
+            new Breed("Persian", 20, 5, 1),
+            new Breed("Maine Coon", 20, 7, 2),
+            new Breed("Labrador Retriever", 90, 30, 4),
+            new Breed("Pit Bull Terrier", 80, 25, 5),
+            new Breed("German Shepherd", 50, 32, 5),
+            new Breed("Chihuahua", 60, 2, 1),
+            new Breed("Beagle", 40, 10, 2),
+            new Breed("Boxer", 30, 28, 4),
+            new Breed("Terrier", 40, 8, 3),
+            new Breed("Poodle", 30, 12, 8),
+            new Breed("Husky", 30, 22, 4),
+            new Breed("Dachshund", 20, 8, 2),
+            new Breed(null, 110, 12, 10)
+    };
+
+    /** Sum of the shares of {@link #BREEDS} */
+    private static final int BREED_SHARES;
+
+    static {
+        int shares = 0;
+        for (Breed breed : BREEDS) {
+            shares += breed.share;
+        }
+        BREED_SHARES = shares;
+    }
+
+    /** Share of the pets of unknown gender, in percent; the rest are half male, half female */
+    private static final int UNKNOWN_GENDER_PERCENT = 10;
+
+    private final Random mRandom;
+    private int mCount;
+
+    /** Names of the current round, in the order they're handed out */
+    private final String[] mNames = NAMES.clone();
+
+    /**
+     * @param seed the pets made depend on it only
+     */
+    public PetGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Returns the values of the next pet, ready to be inserted.
+     */
+    public ContentValues next() {
+        int index = mCount % mNames.length;
+        if (index == 0) {
+            shuffleNames();
+        }
+        String name = mNames[index];
+        int round = mCount / mNames.length;
+        if (round > 0) {
+            name = name + " " + (round + 1);
+        }
+        mCount++;
+
+        Breed breed = BREEDS[BREEDS.length - 1];
+        int share = mRandom.nextInt(BREED_SHARES);
+        for (Breed candidate : BREEDS) {
+            share -= candidate.share;
+            if (share < 0) {
+                breed = candidate;
+                break;
+            }
+        }
+
+        int gender;
+        if (mRandom.nextInt(100) < UNKNOWN_GENDER_PERCENT) {
+            gender = PetEntry.GENDER_UNKNOWN;
+        } else {
+            gender = mRandom.nextBoolean() ? PetEntry.GENDER_MALE : PetEntry.GENDER_FEMALE;
+        }
+
+        double weight = breed.meanWeight + mRandom.nextGaussian() * breed.weightSpread;
+
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_NAME, name);
+        values.put(PetEntry.COLUMN_BREED, breed.name);
+        values.put(PetEntry.COLUMN_GENDER, gender);
+        values.put(PetEntry.COLUMN_WEIGHT, Math.max(1, (int) Math.round(weight)));
+        return values;
+    }
+
+    /**
+     * Shuffles {@link #mNames} for the next round.
+     */
+    private void shuffleNames() {
+        for (int i = mNames.length - 1; i > 0; i--) {
+            int j = mRandom.nextInt(i + 1);
+            String name = mNames[i];
+            mNames[i] = mNames[j];
+            mNames[j] = name;
+        }
+    }
+
+    /**
+     * Fills the array with the next pets.
+     */
+    public void next(ContentValues[] values) {
+        for (int i = 0; i < values.length; i++) {
+            values[i] = next();
+        }
+    }
+
+    /**
+     * Inserts the next {@code count} pets at the URI, {@link #CHUNK_SIZE} at a time with
+     * {@link ContentResolver#bulkInsert}: each chunk is one transaction. Blocks, run it on a
+     * background thread.
+     *
+     * @param uri      {@link PetEntry#CONTENT_URI}, or the pets of a shelter
+     * @param listener told after each chunk, may be null
+     * @return the number of pets inserted
+     */
+    public int insert(ContentResolver resolver, Uri uri, int count, Listener listener) {
+        int rowsInserted = 0;
+        ContentValues[] chunk = new ContentValues[CHUNK_SIZE];
+        for (int done = 0; done < count; done += chunk.length) {
+            if (count - done < chunk.length) {
+                chunk = new ContentValues[count - done];
+            }
+            next(chunk);
+            rowsInserted += resolver.bulkInsert(uri, chunk);
+            if (listener != null && !listener.onProgress(rowsInserted, count)) {
+                break;
+            }
+        }
+        return rowsInserted;
+    }
+}
@@ -0,0 +1,440 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Imports pets from a CSV or JSON file into {@link PetProvider}, in one streaming pass.
+ *
+ * CSV files start with a header naming their columns, among name, breed, gender and weight; only
+ * name is required. JSON files hold an array of objects with the same keys. The gender can be
+ * given as a number or as male, female or unknown, and is unknown when missing.
+ *
+ * Records are checked with the same rules as {@link PetProvider#insert} and written in chunks of
+ * {@link #CHUNK_SIZE}, each in its own transaction, so memory use doesn't depend on the size of
+ * the file. Invalid records are reported and skipped. After each chunk the number of records done
+ * is saved, and importing the same file again picks up where the last import stopped. If the
+ * import is interrupted between a chunk's commit and its checkpoint, that one chunk is imported
+ * twice.
+ *
+ * {@link #importPets} blocks, run it on a background thread.
+ */
+public class PetImporter {
+
+    /**
+     * Receives the progress of an import, on the importing thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called after every chunk.
+         *
+         * @param recordsRead  records read from the file so far, including skipped ones
+         * @param rowsImported pets inserted by this import so far
+         * @param rowsRejected records rejected by this import so far
+         */
+        void onProgress(long recordsRead, long rowsImported, long rowsRejected);
+
+        /**
+         * Called for every record that can't be imported.
+         *
+         * @param record index of the record in the file, from 1
+         * @param reason why it was rejected
+         */
+        void onRecordRejected(long record, String reason);
+    }
+
+    /**
+     * Outcome of a finished import.
+     */
+    public static class Result {
+
+        /** Records that were already imported by an interrupted import, and skipped */
+        public final long recordsSkipped;
+        public final long rowsImported;
+        public final long rowsRejected;
+
+        Result(long recordsSkipped, long rowsImported, long rowsRejected) {
+            this.recordsSkipped = recordsSkipped;
+            this.rowsImported = rowsImported;
+            this.rowsRejected = rowsRejected;
+        }
+    }
+
+    /** Number of pets inserted per transaction */
+    public static final int CHUNK_SIZE = 500;
+
+    /** Preferences holding the number of records done for each file being imported */
+    private static final String CHECKPOINTS = "pet_import_checkpoints";
+
+    private final ContentResolver mResolver;
+    private final SharedPreferences mCheckpoints;
+    private final Listener mListener;
+
+    private volatile boolean mCancelled;
+
+    public PetImporter(Context context, Listener listener) {
+        mResolver = context.getContentResolver();
+        mCheckpoints = context.getSharedPreferences(CHECKPOINTS, Context.MODE_PRIVATE);
+        mListener = listener;
+    }
+
+    /**
+     * Stops the import after the current chunk. It can be resumed by importing the same file
+     * again.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Imports the pets in the given file, resuming a previous import of it if there was one.
+     *
+     * @return the outcome, or null if the import was cancelled
+     * @throws IOException if the file can't be read or isn't valid CSV or JSON
+     */
+    public Result importPets(Uri source) throws IOException {
+        InputStream in = mResolver.openInputStream(source);
+        if (in == null) {
+            throw new IOException("Cannot open " + source);
+        }
+
+        String checkpointKey = source.toString();
+        long recordsDone = mCheckpoints.getLong(checkpointKey, 0);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            RecordReader records = isJson(reader) ? new JsonRecordReader(reader)
+                    : new CsvRecordReader(reader);
+
+            List<ContentValues> chunk = new ArrayList<ContentValues>(CHUNK_SIZE);
+            long record = 0;
+            long rowsImported = 0;
+            long rowsRejected = 0;
+
+            while (true) {
+                ContentValues values;
+                String rejection = null;
+                try {
+                    values = records.next();
+                    if (values == null) {
+                        break;
+                    }
+                    record++;
+                    if (record <= recordsDone) {
+                        // Already imported before the last import was interrupted
+                        continue;
+                    }
+                    if (!values.containsKey(PetEntry.COLUMN_GENDER)) {
+                        values.put(PetEntry.COLUMN_GENDER, PetEntry.GENDER_UNKNOWN);
+                    }
+                    PetProvider.validatePet(values);
+                } catch (IllegalArgumentException e) {
+                    record++;
+                    if (record <= recordsDone) {
+                        continue;
+                    }
+                    values = null;
+                    rejection = e.getMessage();
+                }
+
+                if (values != null) {
+                    chunk.add(values);
+                } else {
+                    rowsRejected++;
+                    mListener.onRecordRejected(record, rejection);
+                }
+
+                if (chunk.size() == CHUNK_SIZE) {
+                    rowsImported += insertChunk(chunk);
+                    mCheckpoints.edit().putLong(checkpointKey, record).commit();
+                    mListener.onProgress(record, rowsImported, rowsRejected);
+                    if (mCancelled) {
+                        return null;
+                    }
+                }
+            }
+
+            rowsImported += insertChunk(chunk);
+            mCheckpoints.edit().remove(checkpointKey).commit();
+            mListener.onProgress(record, rowsImported, rowsRejected);
+
+            return new Result(Math.min(recordsDone, record), rowsImported, rowsRejected);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private int insertChunk(List<ContentValues> chunk) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI,
+                chunk.toArray(new ContentValues[chunk.size()]));
+        chunk.clear();
+        return inserted;
+    }
+
+    /**
+     * Whether the file looks like JSON, that is its first non-blank character opens an array.
+     * Leaves the reader at the start of the content.
+     */
+    private static boolean isJson(BufferedReader reader) throws IOException {
+        // Drop a byte order mark, neither parser expects one.
+        reader.mark(1);
+        if (reader.read() != '\uFEFF') {
+            reader.reset();
+        }
+
+        reader.mark(1024);
+        try {
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (!Character.isWhitespace(c)) {
+                    return c == '[';
+                }
+            }
+            return false;
+        }
+        finally {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Turns a column value from the file into its typed value.
+     *
+     * @throws IllegalArgumentException if the value isn't valid for the column
+     */
+    private static void putColumn(ContentValues values, String column, String value) {
+        if (PetEntry.COLUMN_NAME.equals(column) || PetEntry.COLUMN_BREED.equals(column)) {
+            values.put(column, value);
+        } else if (PetEntry.COLUMN_GENDER.equals(column)) {
+            values.put(column, parseGender(value));
+        } else if (PetEntry.COLUMN_WEIGHT.equals(column)) {
+            if (value != null && !value.trim().isEmpty()) {
+                try {
+                    values.put(column, Integer.parseInt(value.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid weight " + value);
+                }
+            }
+        }
+        // Other columns are ignored
+    }
+
+    private static int parseGender(String value) {
+        if (value == null) {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        String gender = value.trim().toLowerCase(Locale.US);
+        if (gender.isEmpty() || gender.equals("unknown")) {
+            return PetEntry.GENDER_UNKNOWN;
+        } else if (gender.equals("male") || gender.equals("m")) {
+            return PetEntry.GENDER_MALE;
+        } else if (gender.equals("female") || gender.equals("f")) {
+            return PetEntry.GENDER_FEMALE;
+        }
+        try {
+            return Integer.parseInt(gender);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid gender " + value);
+        }
+    }
+
+    /**
+     * Reads the records of a file one at a time.
+     */
+    private interface RecordReader {
+
+        /**
+         * Returns the next record, or null at the end of the file.
+         *
+         * @throws IllegalArgumentException if the record is invalid, the next call reads the
+         *                                  record after it
+         * @throws IOException              if the file can't be read any further
+         */
+        ContentValues next() throws IOException;
+    }
+
+    /**
+     * Reads CSV records as described in RFC 4180: fields may be quoted, and quoted fields may
+     * hold commas, line breaks and doubled quotes.
+     */
+    private static class CsvRecordReader implements RecordReader {
+
+        private final Reader mReader;
+        private final String[] mColumns;
+        private final StringBuilder mField = new StringBuilder();
+        private boolean mEndOfFile;
+
+        CsvRecordReader(Reader reader) throws IOException {
+            mReader = reader;
+
+            List<String> header = readFields();
+            if (header == null) {
+                throw new IOException("Empty CSV file");
+            }
+            mColumns = new String[header.size()];
+            boolean hasName = false;
+            for (int i = 0; i < mColumns.length; i++) {
+                mColumns[i] = header.get(i).trim().toLowerCase(Locale.US);
+                hasName |= PetEntry.COLUMN_NAME.equals(mColumns[i]);
+            }
+            if (!hasName) {
+                throw new IOException("CSV header has no " + PetEntry.COLUMN_NAME + " column");
+            }
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            List<String> fields;
+            do {
+                fields = readFields();
+                if (fields == null) {
+                    return null;
+                }
+                // Skip blank lines
+            } while (fields.size() == 1 && fields.get(0).isEmpty());
+
+            if (fields.size() != mColumns.length) {
+                throw new IllegalArgumentException("Expected " + mColumns.length + " fields, found "
+                        + fields.size());
+            }
+
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < mColumns.length; i++) {
+                putColumn(values, mColumns[i], fields.get(i));
+            }
+            return values;
+        }
+
+        /**
+         * Reads the fields of the next line, or returns null at the end of the file.
+         */
+        private List<String> readFields() throws IOException {
+            if (mEndOfFile) {
+                return null;
+            }
+
+            List<String> fields = new ArrayList<String>();
+            mField.setLength(0);
+            boolean quoted = false;
+            boolean readAnything = false;
+
+            while (true) {
+                int c = mReader.read();
+                if (c == -1) {
+                    mEndOfFile = true;
+                    if (!readAnything) {
+                        return null;
+                    }
+                    break;
+                }
+                readAnything = true;
+
+                if (quoted) {
+                    if (c == '"') {
+                        mReader.mark(1);
+                        if (mReader.read() == '"') {
+                            mField.append('"');
+                        } else {
+                            mReader.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == '"' && mField.length() == 0) {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(mField.toString());
+                    mField.setLength(0);
+                } else if (c == '\n') {
+                    break;
+                } else if (c != '\r') {
+                    mField.append((char) c);
+                }
+            }
+
+            fields.add(mField.toString());
+            return fields;
+        }
+    }
+
+    /**
+     * Reads a JSON array of pet objects.
+     */
+    private static class JsonRecordReader implements RecordReader {
+
+        private final JsonReader mReader;
+        private boolean mStarted;
+
+        JsonRecordReader(Reader reader) {
+            mReader = new JsonReader(reader);
+        }
+
+        @Override
+        public ContentValues next() throws IOException {
+            try {
+                if (!mStarted) {
+                    mReader.beginArray();
+                    mStarted = true;
+                }
+                if (!mReader.hasNext()) {
+                    mReader.endArray();
+                    return null;
+                }
+
+                if (mReader.peek() != JsonToken.BEGIN_OBJECT) {
+                    mReader.skipValue();
+                    throw new IllegalArgumentException("Expected an object");
+                }
+
+                Map<String, String> fields = new HashMap<String, String>();
+                mReader.beginObject();
+                while (mReader.hasNext()) {
+                    String key = mReader.nextName().toLowerCase(Locale.US);
+                    JsonToken token = mReader.peek();
+                    if (token == JsonToken.NULL) {
+                        mReader.nextNull();
+                        fields.put(key, null);
+                    } else if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+                        fields.put(key, mReader.nextString());
+                    } else {
+                        mReader.skipValue();
+                    }
+                }
+                mReader.endObject();
+
+                ContentValues values = new ContentValues();
+                for (Map.Entry<String, String> field : fields.entrySet()) {
+                    putColumn(values, field.getKey(), field.getValue());
+                }
+                return values;
+            } catch (IllegalStateException e) {
+                // JsonReader reports malformed JSON this way, we can't go on from there.
+                throw new IOException("Invalid JSON: " + e.getMessage());
+            }
+        }
+    }
+}
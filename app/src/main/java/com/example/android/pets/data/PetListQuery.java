@@ -0,0 +1,175 @@
+package com.example.android.pets.data;
+
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Immutable sort order and filters of a list of pets, which builds the URIs of its pages. See
+ * {@link PetEntry#QUERY_PARAMETER_SORT}.
+ */
+public final class PetListQuery implements Parcelable {
+
+    /** Gender of a query that isn't filtered by gender */
+    public static final int ANY_GENDER = -1;
+
+    /** Weight bound of a query that isn't filtered by weight */
+    public static final int NO_WEIGHT_LIMIT = -1;
+
+    private final String mSort;
+    private final int mGender;
+    private final int mMinWeight;
+    private final int mMaxWeight;
+
+    /**
+     * Constructs a query for all the pets in ID order.
+     */
+    public PetListQuery() {
+        this(PetEntry.SORT_ID, ANY_GENDER, NO_WEIGHT_LIMIT, NO_WEIGHT_LIMIT);
+    }
+
+    /**
+     * @param sort      one of the SORT values of {@link PetEntry}
+     * @param gender    gender of the pets, or {@link #ANY_GENDER}
+     * @param minWeight lowest weight of the pets, or {@link #NO_WEIGHT_LIMIT}
+     * @param maxWeight highest weight of the pets, or {@link #NO_WEIGHT_LIMIT}
+     */
+    public PetListQuery(String sort, int gender, int minWeight, int maxWeight) {
+        if (!PetEntry.isValidSort(sort)) {
+            throw new IllegalArgumentException("Invalid sort " + sort);
+        }
+        if (gender != ANY_GENDER && !PetEntry.isValidGender(gender)) {
+            throw new IllegalArgumentException("Invalid gender " + gender);
+        }
+        mSort = sort;
+        mGender = gender;
+        mMinWeight = minWeight;
+        mMaxWeight = maxWeight;
+    }
+
+    public String getSort() {
+        return mSort;
+    }
+
+    public int getGender() {
+        return mGender;
+    }
+
+    public int getMinWeight() {
+        return mMinWeight;
+    }
+
+    public int getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    public PetListQuery withSort(String sort) {
+        return new PetListQuery(sort, mGender, mMinWeight, mMaxWeight);
+    }
+
+    public PetListQuery withGender(int gender) {
+        return new PetListQuery(mSort, gender, mMinWeight, mMaxWeight);
+    }
+
+    public PetListQuery withWeightRange(int minWeight, int maxWeight) {
+        return new PetListQuery(mSort, mGender, minWeight, maxWeight);
+    }
+
+    /**
+     * Builds the URI of the page of at most {@code limit} pets that come after the given pet.
+     *
+     * @param after last pet of the previous page, or null for the first page
+     */
+    public Uri buildPageUri(Pet after, int limit) {
+        Uri.Builder builder = PetEntry.CONTENT_URI.buildUpon();
+        if (!PetEntry.SORT_ID.equals(mSort)) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_SORT, mSort);
+        }
+        if (mGender != ANY_GENDER) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_GENDER, String.valueOf(mGender));
+        }
+        if (mMinWeight != NO_WEIGHT_LIMIT) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_MIN_WEIGHT,
+                    String.valueOf(mMinWeight));
+        }
+        if (mMaxWeight != NO_WEIGHT_LIMIT) {
+            builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_MAX_WEIGHT,
+                    String.valueOf(mMaxWeight));
+        }
+        builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER,
+                String.valueOf(after != null ? after.getId() : 0));
+        if (after != null) {
+            String value = getSortValue(after);
+            if (value != null && !PetEntry.SORT_ID.equals(mSort)) {
+                builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_AFTER_VALUE, value);
+            }
+        }
+        return builder.appendQueryParameter(PetEntry.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+    }
+
+    private String getSortValue(Pet pet) {
+        if (PetEntry.SORT_NAME.equals(mSort)) {
+            return pet.getName();
+        }
+        if (PetEntry.SORT_BREED.equals(mSort)) {
+            return pet.getBreed();
+        }
+        if (PetEntry.SORT_WEIGHT.equals(mSort)) {
+            return String.valueOf(pet.getWeight());
+        }
+        return String.valueOf(pet.getId());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PetListQuery)) {
+            return false;
+        }
+        PetListQuery other = (PetListQuery) o;
+        return mSort.equals(other.mSort)
+                && mGender == other.mGender
+                && mMinWeight == other.mMinWeight
+                && mMaxWeight == other.mMaxWeight;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mSort.hashCode();
+        result = 31 * result + mGender;
+        result = 31 * result + mMinWeight;
+        result = 31 * result + mMaxWeight;
+        return result;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeString(mSort);
+        dest.writeInt(mGender);
+        dest.writeInt(mMinWeight);
+        dest.writeInt(mMaxWeight);
+    }
+
+    public static final Creator<PetListQuery> CREATOR = new Creator<PetListQuery>() {
+        @Override
+        public PetListQuery createFromParcel(Parcel source) {
+            return new PetListQuery(source.readString(), source.readInt(), source.readInt(),
+                    source.readInt());
+        }
+
+        @Override
+        public PetListQuery[] newArray(int size) {
+            return new PetListQuery[size];
+        }
+    };
+}
@@ -0,0 +1,122 @@
+package com.example.android.pets.data;
+
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Catches the database being used on the main thread, in debug builds. {@link PetDbHelper}
+ * checks every time the database is asked for, so this covers the calls to {@link PetProvider}
+ * as well as the code using the database directly.
+ *
+ * Each violation is logged with its stack trace and counted by call site: the first frame of the
+ * app outside this package, and the method of this package it called. With
+ * {@link #PENALTY_DEATH} the call also throws, so a flow that blocks the UI thread fails right
+ * away instead of going unnoticed.
+ */
+public final class PetMainThreadGuard {
+
+    public static final String LOG_TAG = PetMainThreadGuard.class.getSimpleName();
+
+    /** Log and count violations */
+    public static final int PENALTY_LOG = 0;
+
+    /** Log and count violations, then throw an {@link IllegalStateException} */
+    public static final int PENALTY_DEATH = 1;
+
+    /** Most call sites kept, later ones are only logged */
+    private static final int MAX_CALL_SITES = 64;
+
+    private static final String PACKAGE = PetMainThreadGuard.class.getPackage().getName() + ".";
+    private static final String APP_PACKAGE = "com.example.android.pets.";
+
+    private static volatile int sPenalty = PENALTY_LOG;
+
+    /** Number of violations by call site, in the order they were first seen */
+    private static final Map<String, Integer> sViolations = new LinkedHashMap<String, Integer>();
+
+    private PetMainThreadGuard() {
+    }
+
+    /**
+     * Sets what happens on a violation, {@link #PENALTY_LOG} or {@link #PENALTY_DEATH}.
+     */
+    public static void setPenalty(int penalty) {
+        sPenalty = penalty;
+    }
+
+    public static int getPenalty() {
+        return sPenalty;
+    }
+
+    /**
+     * Returns the call sites seen so far, with the number of violations of each.
+     */
+    public static List<String> getViolations() {
+        List<String> violations = new ArrayList<String>();
+        synchronized (sViolations) {
+            for (Map.Entry<String, Integer> entry : sViolations.entrySet()) {
+                violations.add(entry.getKey() + " x" + entry.getValue());
+            }
+        }
+        return violations;
+    }
+
+    public static void clearViolations() {
+        synchronized (sViolations) {
+            sViolations.clear();
+        }
+    }
+
+    /**
+     * Reports a violation if called on the main thread.
+     */
+    static void check() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            return;
+        }
+
+        IllegalStateException violation =
+                new IllegalStateException("Database accessed on the main thread");
+        String callSite = findCallSite(violation.getStackTrace());
+        synchronized (sViolations) {
+            Integer count = sViolations.get(callSite);
+            if (count != null || sViolations.size() < MAX_CALL_SITES) {
+                sViolations.put(callSite, count == null ? 1 : count + 1);
+            }
+        }
+        Log.w(LOG_TAG, "Database accessed on the main thread from " + callSite, violation);
+
+        if (sPenalty == PENALTY_DEATH) {
+            throw violation;
+        }
+    }
+
+    /**
+     * Returns the first frame of the app outside this package, followed by the last frame of this
+     * package before it: the code that asked for the database, and what it called.
+     */
+    private static String findCallSite(StackTraceElement[] frames) {
+        StackTraceElement entry = null;
+        for (StackTraceElement frame : frames) {
+            String className = frame.getClassName();
+            if (className.startsWith(PACKAGE)) {
+                if (!className.equals(PetMainThreadGuard.class.getName())) {
+                    entry = frame;
+                }
+            } else if (className.startsWith(APP_PACKAGE)) {
+                return frame + (entry != null ? " -> " + shortName(entry) : "");
+            }
+        }
+        return entry != null ? entry.toString() : "unknown";
+    }
+
+    private static String shortName(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return className.substring(className.lastIndexOf('.') + 1) + "." + frame.getMethodName();
+    }
+}
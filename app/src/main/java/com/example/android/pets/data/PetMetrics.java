@@ -0,0 +1,139 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls to {@link PetProvider} by operation and route: number of calls, rows, total
+ * and maximum time, and a histogram of the times. Recording only touches atomic counters, so
+ * it's cheap and never blocks the callers.
+ *
+ * Bucket {@code i} of the histogram counts the calls that took less than 2^i microseconds, and
+ * more than the previous bucket; the last bucket counts all the longer ones.
+ */
+class PetMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete"
+    };
+
+    /** Number of histogram buckets, the last one starts at about 4 seconds */
+    static final int BUCKETS = 24;
+
+    private final int mFirstRoute;
+    private final String[] mRouteNames;
+
+    private final AtomicLongArray mCounts;
+    private final AtomicLongArray mRows;
+    private final AtomicLongArray mNanos;
+    private final AtomicLongArray mMaxNanos;
+    private final AtomicLongArray mHistograms;
+
+    /**
+     * @param firstRoute code of the first route of the provider's matcher
+     * @param routeNames names of the routes, from the first one on with consecutive codes
+     */
+    PetMetrics(int firstRoute, String[] routeNames) {
+        mFirstRoute = firstRoute;
+        mRouteNames = routeNames;
+        int keys = OPERATION_NAMES.length * routeNames.length;
+        mCounts = new AtomicLongArray(keys);
+        mRows = new AtomicLongArray(keys);
+        mNanos = new AtomicLongArray(keys);
+        mMaxNanos = new AtomicLongArray(keys);
+        mHistograms = new AtomicLongArray(keys * BUCKETS);
+    }
+
+    /**
+     * Records a call. Calls to unknown routes are ignored.
+     *
+     * @param operation one of the operation constants
+     * @param route     code of the route the URI matched
+     * @param nanos     time the call took
+     * @param rows      rows returned or written
+     */
+    void record(int operation, int route, long nanos, int rows) {
+        int routeIndex = route - mFirstRoute;
+        if (routeIndex < 0 || routeIndex >= mRouteNames.length) {
+            return;
+        }
+        int key = operation * mRouteNames.length + routeIndex;
+
+        mCounts.incrementAndGet(key);
+        mRows.addAndGet(key, rows);
+        mNanos.addAndGet(key, nanos);
+        long max = mMaxNanos.get(key);
+        while (nanos > max && !mMaxNanos.compareAndSet(key, max, nanos)) {
+            max = mMaxNanos.get(key);
+        }
+        mHistograms.incrementAndGet(key * BUCKETS + bucket(nanos));
+    }
+
+    private static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * Returns the metrics of each operation and route called so far, as described by
+     * {@link PetContract#METHOD_METRICS}. The counters keep moving while they're read, so the
+     * values of a busy route may be off by the calls made meanwhile.
+     */
+    Bundle toBundle() {
+        ArrayList<Bundle> metrics = new ArrayList<Bundle>();
+        for (int key = 0; key < mCounts.length(); key++) {
+            long count = mCounts.get(key);
+            if (count == 0) {
+                continue;
+            }
+
+            long[] histogram = new long[BUCKETS];
+            long recorded = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                histogram[i] = mHistograms.get(key * BUCKETS + i);
+                recorded += histogram[i];
+            }
+
+            Bundle metric = new Bundle();
+            metric.putString(PetContract.KEY_METRIC_OPERATION,
+                    OPERATION_NAMES[key / mRouteNames.length]);
+            metric.putString(PetContract.KEY_METRIC_ROUTE, mRouteNames[key % mRouteNames.length]);
+            metric.putLong(PetContract.KEY_METRIC_COUNT, count);
+            metric.putLong(PetContract.KEY_METRIC_ROWS, mRows.get(key));
+            metric.putLong(PetContract.KEY_METRIC_TOTAL_MICROS, mNanos.get(key) / 1000);
+            metric.putLong(PetContract.KEY_METRIC_MAX_MICROS, mMaxNanos.get(key) / 1000);
+            metric.putLong(PetContract.KEY_METRIC_P50_MICROS, percentile(histogram, recorded, 50));
+            metric.putLong(PetContract.KEY_METRIC_P90_MICROS, percentile(histogram, recorded, 90));
+            metric.putLong(PetContract.KEY_METRIC_P99_MICROS, percentile(histogram, recorded, 99));
+            metric.putLongArray(PetContract.KEY_METRIC_HISTOGRAM, histogram);
+            metrics.add(metric);
+        }
+
+        Bundle result = new Bundle();
+        result.putParcelableArrayList(PetContract.KEY_METRICS, metrics);
+        return result;
+    }
+
+    /**
+     * Returns an upper bound of the percentile in microseconds, the end of the bucket it falls in.
+     */
+    private static long percentile(long[] histogram, long recorded, int percent) {
+        long rank = (long) Math.ceil(percent / 100.0 * recorded);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (histogram.length - 1);
+    }
+}
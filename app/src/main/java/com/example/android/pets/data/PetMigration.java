@@ -0,0 +1,40 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the schema history of the pets database. Each migration takes the database from
+ * {@link #getVersion()} - 1 to {@link #getVersion()}, and {@link PetDbHelper} runs them in order
+ * both when the database is created and when it's upgraded, so every install ends up with the
+ * same schema.
+ *
+ * Migrations that have shipped must never be changed; add a new one instead.
+ */
+abstract class PetMigration {
+
+    private final int mVersion;
+    private final String mDescription;
+
+    /**
+     * @param version     the schema version this migration upgrades to
+     * @param description what the migration does, for the logs
+     */
+    PetMigration(int version, String description) {
+        mVersion = version;
+        mDescription = description;
+    }
+
+    int getVersion() {
+        return mVersion;
+    }
+
+    String getDescription() {
+        return mDescription;
+    }
+
+    /**
+     * Apply the migration. This runs inside the upgrade transaction, so it must not begin or end
+     * transactions itself.
+     */
+    abstract void migrate(SQLiteDatabase db);
+}
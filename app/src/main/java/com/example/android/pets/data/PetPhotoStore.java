@@ -0,0 +1,99 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Photo files of the pets, for {@link PetProvider}. Each photo is a file in one directory, and
+ * {@link PetEntry#COLUMN_PHOTO} holds its name, so the rows stay small and a cursor over the pets
+ * never carries image data.
+ *
+ * A photo file is never rewritten: a new photo gets a new file. When a pet is purged, see
+ * {@link PetCompactor}, or its photo replaced, triggers put the old file name in
+ * {@link #TRASH_TABLE_NAME}, in the same transaction as the change, and {@link #purgeTrash}
+ * deletes the files once it has committed. A deleted pet keeps its photo until it's purged, so
+ * restoring it brings the photo back, and a rolled back change keeps it.
+ */
+class PetPhotoStore {
+
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    /** Names of the photo files that no pet uses anymore, waiting to be deleted */
+    static final String TRASH_TABLE_NAME = "pet_photo_trash";
+
+    private static final String FILE_EXTENSION = ".jpg";
+
+    private final File mDirectory;
+
+    /**
+     * @param directory where the photos are kept, created on the first photo
+     */
+    PetPhotoStore(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns the file of the photo with the given name.
+     *
+     * @throws IllegalArgumentException if the name isn't the name of a photo file
+     */
+    File getFile(String name) {
+        if (name.indexOf(File.separatorChar) != -1 || !name.endsWith(FILE_EXTENSION)) {
+            throw new IllegalArgumentException("Invalid photo name " + name);
+        }
+        return new File(mDirectory, name);
+    }
+
+    /**
+     * Returns a new file to write a photo in. It doesn't exist yet, and no pet uses its name.
+     */
+    File newFile() {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Cannot create " + mDirectory);
+        }
+        return new File(mDirectory, UUID.randomUUID().toString() + FILE_EXTENSION);
+    }
+
+    /**
+     * Deletes the photo files in the trash. Does nothing inside a transaction, since the changes
+     * that put them there may still roll back; the next purge after it commits deletes them.
+     *
+     * @return the number of photos deleted
+     */
+    int purgeTrash(SQLiteDatabase db) {
+        if (db.inTransaction()) {
+            return 0;
+        }
+
+        List<String> names = new ArrayList<String>();
+        Cursor cursor = db.query(TRASH_TABLE_NAME, new String[] { PetEntry.COLUMN_PHOTO },
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(0));
+            }
+        }
+        finally {
+            cursor.close();
+        }
+
+        for (String name : names) {
+            File file = new File(mDirectory, name);
+            if (file.exists() && !file.delete()) {
+                // Left in the trash, the next purge tries again.
+                Log.w(LOG_TAG, "Cannot delete " + file);
+                continue;
+            }
+            db.delete(TRASH_TABLE_NAME, PetEntry.COLUMN_PHOTO + "=?", new String[] { name });
+        }
+        return names.size();
+    }
+}
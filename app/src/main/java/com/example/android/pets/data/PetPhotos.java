@@ -0,0 +1,95 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes photos without loading them at full size: the image is read twice, once for its size
+ * and once subsampled to the smallest power of two that still covers the size asked for. A
+ * 12 megapixel photo decoded for a 1280 pixel target takes a sixteenth of the memory.
+ *
+ * Decoding reads from disk, call these on a background thread.
+ */
+public final class PetPhotos {
+
+    /** Longest side of the photos as stored, see {@link PetWriteQueue#savePhoto} */
+    public static final int MAX_PHOTO_SIZE = 1280;
+
+    /** JPEG quality of the photos as stored */
+    public static final int JPEG_QUALITY = 85;
+
+    private PetPhotos() {
+    }
+
+    /**
+     * Decodes the image at the URI so that both its sides are at least {@code minSize} pixels,
+     * or less if the image itself is smaller.
+     *
+     * @return the image, or null if it can't be decoded
+     * @throws FileNotFoundException if there's no image at the URI
+     */
+    public static Bitmap decodeSampled(ContentResolver resolver, Uri uri, int minSize)
+            throws FileNotFoundException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, minSize);
+        return decode(resolver, uri, options);
+    }
+
+    /**
+     * Returns the largest power of two the image can be subsampled by while keeping both its
+     * sides at least {@code minSize} pixels.
+     */
+    public static int calculateInSampleSize(int width, int height, int minSize) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= minSize && height / (sampleSize * 2) >= minSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Scales the bitmap down so that its longest side is at most {@code maxSize} pixels. Returns
+     * the bitmap itself if it's small enough already.
+     */
+    public static Bitmap scaleDown(Bitmap bitmap, int maxSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxSize && height <= maxSize) {
+            return bitmap;
+        }
+        float scale = (float) maxSize / Math.max(width, height);
+        return Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)), true);
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options options)
+            throws FileNotFoundException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        }
+        finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Already read
+            }
+        }
+    }
+}
@@ -1,17 +1,41 @@
 package com.example.android.pets.data;
 
 import android.app.PendingIntent;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by brunogtavares on 6/7/18.
@@ -23,24 +47,362 @@ public class PetProvider extends ContentProvider {
 
     private static final int PETS = 100;
     private static final int PET_ID = 101;
+    private static final int PET_SEARCH = 102;
+    private static final int PET_EXPORT = 103;
+    private static final int PET_CHANGES = 104;
+    private static final int PET_STATS = 105;
+    private static final int PET_PHOTO = 106;
+    private static final int SHELTER_PETS = 107;
+    private static final int SHELTER_PET_ID = 108;
+    private static final int SHELTERS_PETS = 109;
+
+    /** Names of the routes in {@link PetMetrics}, in the order of their codes */
+    private static final String[] ROUTE_NAMES = {
+            PetContract.PATH_PETS,
+            PetContract.PATH_PETS + "/#",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_STATS,
+            PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO,
+            PetContract.PATH_SHELTERS + "/#/" + PetContract.PATH_PETS,
+            PetContract.PATH_SHELTERS + "/#/" + PetContract.PATH_PETS + "/#",
+            PetContract.PATH_SHELTERS + "/" + PetContract.PATH_PETS
+    };
 
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PET_EXPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_CHANGES, PET_CHANGES);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_STATS, PET_STATS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/#/" + PetContract.PATH_PHOTO, PET_PHOTO);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/#/" + PetContract.PATH_PETS, SHELTER_PETS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/#/" + PetContract.PATH_PETS + "/#", SHELTER_PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_SHELTERS + "/" + PetContract.PATH_PETS, SHELTERS_PETS);
+    }
+
+    /**
+     * Tables searched by {@link #PET_SEARCH}: the pets joined with their full-text index entry.
+     */
+    private static final String SEARCH_TABLES = PetContract.PetEntry.TABLE_NAME + " JOIN "
+            + PetContract.PetEntry.FTS_TABLE_NAME + " ON " + PetContract.PetEntry.FTS_TABLE_NAME
+            + ".docid = " + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry._ID;
+
+    /**
+     * Maps the pet columns to the pets table in {@link #SEARCH_TABLES}, the index has columns
+     * with the same names.
+     */
+    private static final Map<String, String> sSearchProjectionMap = new HashMap<String, String>();
+
+    static {
+        String[] columns = {
+                PetContract.PetEntry._ID,
+                PetContract.PetEntry.COLUMN_NAME,
+                PetContract.PetEntry.COLUMN_BREED,
+                PetContract.PetEntry.COLUMN_GENDER,
+                PetContract.PetEntry.COLUMN_WEIGHT
+        };
+        for (String column : columns) {
+            sSearchProjectionMap.put(column,
+                    PetContract.PetEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Tables read by {@link #PET_CHANGES}: the change log with the current state of each pet, if
+     * it still exists and isn't deleted.
+     */
+    private static final String CHANGES_TABLES = PetContract.PetChangeEntry.TABLE_NAME
+            + " LEFT JOIN " + PetContract.PetEntry.TABLE_NAME + " ON "
+            + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry._ID + " = "
+            + PetContract.PetChangeEntry.TABLE_NAME + "." + PetContract.PetChangeEntry.COLUMN_PET_ID
+            + " AND " + PetContract.PetEntry.TABLE_NAME + "." + PetCompactor.COLUMN_DELETED_AT + " = 0";
+
+    /**
+     * Maps the columns of {@link #PET_CHANGES} to {@link #CHANGES_TABLES}. The ID is the pet's,
+     * so it's there for deleted pets too.
+     */
+    private static final Map<String, String> sChangesProjectionMap = new HashMap<String, String>();
+
+    static {
+        String[] changeColumns = {
+                PetContract.PetChangeEntry.COLUMN_VERSION,
+                PetContract.PetChangeEntry.COLUMN_PET_ID,
+                PetContract.PetChangeEntry.COLUMN_OPERATION,
+                PetContract.PetChangeEntry.COLUMN_CHANGED_AT
+        };
+        for (String column : changeColumns) {
+            sChangesProjectionMap.put(column,
+                    PetContract.PetChangeEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+        sChangesProjectionMap.put(PetContract.PetEntry._ID, PetContract.PetChangeEntry.TABLE_NAME
+                + "." + PetContract.PetChangeEntry.COLUMN_PET_ID + " AS " + PetContract.PetEntry._ID);
+        String[] petColumns = {
+                PetContract.PetEntry.COLUMN_NAME,
+                PetContract.PetEntry.COLUMN_BREED,
+                PetContract.PetEntry.COLUMN_GENDER,
+                PetContract.PetEntry.COLUMN_WEIGHT
+        };
+        for (String column : petColumns) {
+            sChangesProjectionMap.put(column,
+                    PetContract.PetEntry.TABLE_NAME + "." + column + " AS " + column);
+        }
+    }
+
+    /**
+     * Row of {@link #PET_STATS}, summed up from the statistics of each gender.
+     */
+    private static final String STATS_TABLE = "(SELECT "
+            + "SUM(" + PetContract.PetStatsEntry.COLUMN_PET_COUNT + ") AS "
+            + PetContract.PetStatsEntry.COLUMN_PET_COUNT + ", "
+            + sumForGender(PetContract.PetEntry.GENDER_UNKNOWN) + " AS "
+            + PetContract.PetStatsEntry.COLUMN_UNKNOWN_COUNT + ", "
+            + sumForGender(PetContract.PetEntry.GENDER_MALE) + " AS "
+            + PetContract.PetStatsEntry.COLUMN_MALE_COUNT + ", "
+            + sumForGender(PetContract.PetEntry.GENDER_FEMALE) + " AS "
+            + PetContract.PetStatsEntry.COLUMN_FEMALE_COUNT + ", "
+            + "IFNULL(CAST(SUM(" + PetContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT + ") AS REAL) / "
+            + "NULLIF(SUM(" + PetContract.PetStatsEntry.COLUMN_PET_COUNT + "), 0), 0) AS "
+            + PetContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT + ", "
+            + "MAX(" + PetContract.PetStatsEntry.COLUMN_MAX_WEIGHT + ") AS "
+            + PetContract.PetStatsEntry.COLUMN_MAX_WEIGHT
+            + " FROM " + PetContract.PetStatsEntry.TABLE_NAME + ")";
+
+    private static String sumForGender(int gender) {
+        return "SUM(CASE WHEN " + PetContract.PetEntry.COLUMN_GENDER + " = " + gender + " THEN "
+                + PetContract.PetStatsEntry.COLUMN_PET_COUNT + " ELSE 0 END)";
     }
 
     private PetDbHelper mDbHelper;
 
+    /**
+     * Shelter whose database this provider serves, or {@link PetShelters#NO_SHELTER} for the
+     * app's provider, see {@link #match}.
+     */
+    private long mShelterId = PetShelters.NO_SHELTER;
+
+    /** Databases of the shelters, in the app's provider only */
+    private PetShelters mShelters;
+
+    /** Precompiled statements for the common single-row writes */
+    private final PetStatements mStatements = new PetStatements();
+
+    /** Whether writes go through {@link #mStatements} when they fit, see {@link #setUseStatements} */
+    private volatile boolean mUseStatements = true;
+
+    private PetChangeNotifier mNotifier;
+
+    /** Whether the changes are notified, see {@link #PetProvider(PetDbHelper)} */
+    private boolean mNotifyChanges = true;
+
+    /** Photo files of the pets, see {@link #PET_PHOTO} */
+    private PetPhotoStore mPhotoStore;
+
+    /** Purges the deleted pets once they can't be restored anymore */
+    private PetCompactor mCompactor;
+
+    /** Directory of the photo files, in the app's files */
+    private static final String PHOTO_DIRECTORY = "pet_photos";
+
+    /** Size of the buffer copying a new photo to its file */
+    private static final int PHOTO_BUFFER_SIZE = 8192;
+
+    /** Most pets kept in {@link #mPetCache} */
+    private static final int PET_CACHE_SIZE = 256;
+
+    /** Formats of {@link #PET_EXPORT} */
+    private static final String[] EXPORT_TYPES = {
+            PetContract.PetEntry.MIME_TYPE_CSV,
+            PetContract.PetEntry.MIME_TYPE_JSON
+    };
+
+    /** Recently read pets, to answer {@link #PET_ID} queries without disk I/O */
+    private final PetCache mPetCache = new PetCache(PET_CACHE_SIZE);
+
+    /** Counts and times of the calls, see {@link PetContract#METHOD_METRICS} */
+    private final PetMetrics mMetrics = new PetMetrics(PETS, ROUTE_NAMES);
+
+    /**
+     * Set while a bulk insert or a batch is running on the current thread. It collects the
+     * changes, so they're held back until the transaction commits, and dropped if it doesn't.
+     */
+    private final ThreadLocal<PendingChanges> mBatchChanges = new ThreadLocal<PendingChanges>();
+
+    /**
+     * Set while a caller holds a transaction of its own on a database, see
+     * {@link #beginDeferredNotifications}.
+     */
+    private static final ThreadLocal<DeferredChanges> sDeferredChanges =
+            new ThreadLocal<DeferredChanges>();
+
+    /**
+     * Changes made in a transaction, applied once it commits. Until then the pets as they were
+     * stay in {@link #mPetCache}: readers on other connections still see them so, and could cache
+     * them back if they were dropped before the commit.
+     */
+    private static final class PendingChanges {
+
+        /** URIs to notify */
+        final Set<Uri> uris = new HashSet<Uri>();
+
+        /** Pets to drop from the cache */
+        final Set<Long> petIds = new HashSet<Long>();
+
+        /** Whether to drop every pet from the cache */
+        boolean allPets;
+
+        void addAll(PendingChanges changes) {
+            uris.addAll(changes.uris);
+            petIds.addAll(changes.petIds);
+            allPets |= changes.allPets;
+        }
+    }
+
+    /**
+     * Changes held back until the caller's transaction ends, by the provider that made them.
+     */
+    private static final class DeferredChanges {
+
+        final SQLiteDatabase database;
+        final Map<PetProvider, PendingChanges> changes =
+                new HashMap<PetProvider, PendingChanges>();
+
+        DeferredChanges(SQLiteDatabase database) {
+            this.database = database;
+        }
+    }
+
+    public PetProvider() {
+    }
+
+    /**
+     * Constructs a provider on the given database instead of the app's, for {@link PetBenchmark}
+     * and the tests. It notifies nobody of its changes: its URIs are the app's, and their
+     * observers watch the app's database.
+     */
+    PetProvider(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+        mNotifyChanges = false;
+    }
+
+    /**
+     * Constructs the provider of a shelter's database, for {@link PetShelters}. It serves the
+     * shelter's pets URIs the way the app's provider serves the pets URIs.
+     */
+    PetProvider(PetDbHelper dbHelper, long shelterId) {
+        mDbHelper = dbHelper;
+        mShelterId = shelterId;
+    }
+
     @Override
     public boolean onCreate() {
 
-        mDbHelper = new PetDbHelper(getContext());
+        // The helper is shared, the database is opened lazily on the first query or write.
+        if (mDbHelper == null) {
+            mDbHelper = PetDbHelper.getInstance(getContext());
+        }
+        mNotifier = new PetChangeNotifier(
+                mNotifyChanges ? getContext().getContentResolver() : null);
+        mPhotoStore = new PetPhotoStore(new File(getContext().getFilesDir(), PHOTO_DIRECTORY));
+        mCompactor = new PetCompactor(mDbHelper, mPhotoStore);
+        if (mShelterId == PetShelters.NO_SHELTER) {
+            // Pets deleted before the process last ended, once the app has settled.
+            mCompactor.schedule(PetContract.RESTORE_WINDOW_MILLIS);
+        } else {
+            // Closed when idle, a shelter is rarely open long enough for a later compaction.
+            mCompactor.schedule(0);
+        }
+        if (mShelterId == PetShelters.NO_SHELTER) {
+            mShelters = new PetShelters(getContext());
+        }
 
         return true;
     }
 
+    /**
+     * Holds back the notifications of the providers writing to the database on this thread,
+     * until {@link #endDeferredNotifications}. For a caller wrapping provider calls in a
+     * transaction of its own, such as {@link PetSyncEngine}: the provider's transactions are
+     * nested in it then, and only the caller knows when the changes are committed.
+     */
+    static void beginDeferredNotifications(SQLiteDatabase database) {
+        if (sDeferredChanges.get() != null) {
+            throw new IllegalStateException("Notifications already deferred on this thread");
+        }
+        sDeferredChanges.set(new DeferredChanges(database));
+    }
+
+    /**
+     * Sends the notifications held back since {@link #beginDeferredNotifications} and drops the
+     * changed pets from the caches, or forgets both if the caller's transaction was rolled back.
+     *
+     * @param committed whether the caller's transaction committed
+     */
+    static void endDeferredNotifications(boolean committed) {
+        DeferredChanges deferred = sDeferredChanges.get();
+        sDeferredChanges.remove();
+        if (deferred == null || !committed) {
+            return;
+        }
+        for (Map.Entry<PetProvider, PendingChanges> entry : deferred.changes.entrySet()) {
+            entry.getKey().commitChanges(entry.getValue());
+        }
+    }
+
+    /**
+     * Sends every write through {@link SQLiteDatabase#insert} and {@link SQLiteDatabase#update}
+     * instead of {@link #mStatements}, so {@link PetBenchmark} can time both.
+     */
+    void setUseStatements(boolean useStatements) {
+        mUseStatements = useStatements;
+    }
+
+    @Override
+    public void shutdown() {
+        mCompactor.cancel();
+        mStatements.close();
+        super.shutdown();
+    }
+
+    /**
+     * Matches the URI to a route. A shelter's provider only knows its pets, which it serves as
+     * {@link #PETS} and {@link #PET_ID}: the rest of the code doesn't care which database it's on.
+     */
+    private int match(Uri uri) {
+        int match = sUriMatcher.match(uri);
+        if (mShelterId == PetShelters.NO_SHELTER) {
+            return match;
+        }
+        switch (match) {
+            case SHELTER_PETS:
+                return PETS;
+            case SHELTER_PET_ID:
+                return PET_ID;
+            default:
+                return UriMatcher.NO_MATCH;
+        }
+    }
+
+    /**
+     * Whether the route is served by a shelter's database, see {@link PetShelters}.
+     */
+    private boolean isShelterRoute(int match) {
+        return mShelters != null
+                && (match == SHELTER_PETS || match == SHELTER_PET_ID || match == SHELTERS_PETS);
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
@@ -49,24 +411,77 @@ public class PetProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
                         @Nullable String[] selectionArgs, @Nullable String sortOrder) {
 
+        int match = match(uri);
+
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            Cursor cursor = queryMatch(match, uri, projection, selection, selectionArgs, sortOrder);
+            // Counting runs the query, so it's part of the time measured. Loaders count the rows
+            // right away anyway.
+            rows = cursor.getCount();
+            return cursor;
+        }
+        finally {
+            mMetrics.record(PetMetrics.QUERY, match, System.nanoTime() - start, rows);
+        }
+    }
+
+    private Cursor queryMatch(int match, Uri uri, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder) {
+
+        // Before opening the app's database, the shelters don't need it.
+        if (isShelterRoute(match)) {
+            if (match == SHELTERS_PETS) {
+                return mShelters.queryAll(projection, selection, selectionArgs, sortOrder);
+            }
+            return mShelters.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
         Cursor cursor;
 
-        int match = sUriMatcher.match(uri);
-
         switch(match) {
             case PETS:
-                cursor = database.query(PetContract.PetEntry.TABLE_NAME,
-                        projection, selection, selectionArgs, null, null, sortOrder);
+                if (isPageQuery(uri)) {
+                    cursor = queryPage(database, uri, projection, selection, selectionArgs);
+                    break;
+                }
+                cursor = database.query(PetContract.PetEntry.TABLE_NAME, projection,
+                        DatabaseUtils.concatenateWhere(PetCompactor.SQL_NOT_DELETED, selection),
+                        selectionArgs, null, null, sortOrder);
                 break;
             case PET_ID:
-                selection = PetContract.PetEntry._ID + "=?";
+                if (PetCache.canServe(projection)) {
+                    cursor = queryCachedPet(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+                selection = PetContract.PetEntry._ID + "=? AND " + PetCompactor.SQL_NOT_DELETED;
                 // this will take the ID from the uri /pets/5 and will convert into a number and then into a string.
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 cursor = database.query(PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case PET_SEARCH:
+                cursor = searchPets(database, uri, projection, selection, selectionArgs, sortOrder);
+                // Any pet may start or stop matching, so watch the whole list.
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        PetContract.PetEntry.CONTENT_URI);
+                return cursor;
+            case PET_CHANGES:
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs);
+                // Any write adds a change, the log itself has no URI of its own to notify.
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        PetContract.PetEntry.CONTENT_URI);
+                return cursor;
+            case PET_STATS:
+                // The statistics table has a row per gender, this is constant time.
+                cursor = database.query(STATS_TABLE, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        PetContract.PetEntry.CONTENT_URI);
+                return cursor;
             default:
                 throw  new IllegalArgumentException("Cannot query unknown URI " + uri);
 
@@ -81,6 +496,590 @@ public class PetProvider extends ContentProvider {
         return cursor;
     }
 
+    /**
+     * Query a single pet through the cache. On a miss the whole pet is read and cached, so the
+     * next query for the pet doesn't touch the database whatever its projection.
+     */
+    private Cursor queryCachedPet(SQLiteDatabase database, long id, String[] projection) {
+        if (database.inTransaction()) {
+            // The cache doesn't have this thread's uncommitted writes, and mustn't get them.
+            return database.query(PetContract.PetEntry.TABLE_NAME,
+                    projection != null ? projection : PetCache.COLUMNS,
+                    PetContract.PetEntry._ID + "=? AND " + PetCompactor.SQL_NOT_DELETED,
+                    new String[] { String.valueOf(id) }, null, null, null);
+        }
+
+        Pet pet = mPetCache.get(id);
+        if (pet == null) {
+            long generation = mPetCache.getGeneration();
+            Cursor cursor = database.query(PetContract.PetEntry.TABLE_NAME, PetCache.COLUMNS,
+                    PetContract.PetEntry._ID + "=? AND " + PetCompactor.SQL_NOT_DELETED,
+                    new String[] { String.valueOf(id) }, null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return PetCache.toCursor(null, projection);
+                }
+                pet = new PetCursorMapper(cursor).toPet();
+            }
+            finally {
+                cursor.close();
+            }
+            mPetCache.putIfUnchanged(pet, generation);
+        }
+        return PetCache.toCursor(pet, projection);
+    }
+
+    /** Query parameters of {@link #queryPage} */
+    private static final String[] PAGE_PARAMETERS = {
+            PetContract.PetEntry.QUERY_PARAMETER_AFTER,
+            PetContract.PetEntry.QUERY_PARAMETER_LIMIT,
+            PetContract.PetEntry.QUERY_PARAMETER_SORT,
+            PetContract.PetEntry.QUERY_PARAMETER_GENDER,
+            PetContract.PetEntry.QUERY_PARAMETER_MIN_WEIGHT,
+            PetContract.PetEntry.QUERY_PARAMETER_MAX_WEIGHT
+    };
+
+    private static boolean isPageQuery(Uri uri) {
+        for (String parameter : PAGE_PARAMETERS) {
+            if (uri.getQueryParameter(parameter) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Query one page of pets, as described by {@link PetContract.PetEntry#buildPageUri} and
+     * {@link PetListQuery}. The page is found by seeking an index on the sort column, so it costs
+     * the same wherever it is in the list. The sort order of the URI replaces any given one.
+     */
+    private Cursor queryPage(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs) {
+
+        PageQuery page = new PageQuery(uri, selection, selectionArgs);
+        return database.query(PetContract.PetEntry.TABLE_NAME, projection, page.selection,
+                page.selectionArgs, null, null, page.orderBy, page.limit);
+    }
+
+    /**
+     * Selection, order and limit of a page of pets.
+     *
+     * The pages are sorted on the sort column then on ID, and start after the last pet of the
+     * previous page. Every sort is backed by an index, with the gender first when the pets are
+     * filtered by gender, so the rows are read in order and reading stops at the limit. The
+     * weight range is checked on the rows as they're read, except when sorting by weight where
+     * it narrows the index range; the + keeps SQLite from reading the weight index otherwise,
+     * which would mean sorting every pet in the range for each page.
+     *
+     * When the previous page ended on a null breed, the next one reads past the pets with a null
+     * breed of the previous pages.
+     */
+    private static class PageQuery {
+
+        final String selection;
+        final String[] selectionArgs;
+        final String orderBy;
+        final String limit;
+
+        PageQuery(Uri uri, String selection, String[] selectionArgs) {
+            String sort = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_SORT);
+            if (sort == null) {
+                sort = PetContract.PetEntry.SORT_ID;
+            } else if (!PetContract.PetEntry.isValidSort(sort)) {
+                throw new IllegalArgumentException("Invalid sort in " + uri);
+            }
+            boolean sortById = PetContract.PetEntry.SORT_ID.equals(sort);
+
+            String after = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_AFTER);
+            String afterValue = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_AFTER_VALUE);
+
+            List<String> where = new ArrayList<String>();
+            List<String> args = new ArrayList<String>();
+            where.add(PetCompactor.SQL_NOT_DELETED);
+            try {
+                long afterId = after != null ? Long.parseLong(after) : 0;
+
+                String gender = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_GENDER);
+                if (gender != null) {
+                    if (!PetContract.PetEntry.isValidGender(Integer.parseInt(gender))) {
+                        throw new IllegalArgumentException("Invalid gender in " + uri);
+                    }
+                    where.add(PetContract.PetEntry.COLUMN_GENDER + "=?");
+                    args.add(gender);
+                }
+
+                String weightColumn = PetContract.PetEntry.SORT_WEIGHT.equals(sort)
+                        ? PetContract.PetEntry.COLUMN_WEIGHT : "+" + PetContract.PetEntry.COLUMN_WEIGHT;
+                String minWeight = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_MIN_WEIGHT);
+                if (minWeight != null) {
+                    where.add(weightColumn + ">=?");
+                    args.add(String.valueOf(Integer.parseInt(minWeight)));
+                }
+                String maxWeight = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_MAX_WEIGHT);
+                if (maxWeight != null) {
+                    where.add(weightColumn + "<=?");
+                    args.add(String.valueOf(Integer.parseInt(maxWeight)));
+                }
+
+                if (sortById) {
+                    where.add(PetContract.PetEntry._ID + ">?");
+                    args.add(String.valueOf(afterId));
+                } else if (after != null && afterValue != null) {
+                    if (PetContract.PetEntry.SORT_WEIGHT.equals(sort)) {
+                        afterValue = String.valueOf(Integer.parseInt(afterValue));
+                    }
+                    where.add(sort + ">=? AND (" + sort + ">? OR " + PetContract.PetEntry._ID + ">?)");
+                    args.add(afterValue);
+                    args.add(afterValue);
+                    args.add(String.valueOf(afterId));
+                } else if (after != null && afterId != 0) {
+                    // Nulls come first, the page goes on with the nulls left, then the rest.
+                    where.add("((" + sort + " IS NULL AND " + PetContract.PetEntry._ID + ">?) OR "
+                            + sort + " IS NOT NULL)");
+                    args.add(String.valueOf(afterId));
+                }
+
+                String limitParameter = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+                if (limitParameter != null) {
+                    int pageSize = Integer.parseInt(limitParameter);
+                    if (pageSize <= 0) {
+                        throw new IllegalArgumentException("Page limit must be positive in " + uri);
+                    }
+                    limit = String.valueOf(pageSize);
+                } else {
+                    limit = null;
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid page parameters in " + uri, e);
+            }
+
+            String pageSelection = TextUtils.join(" AND ", where);
+            this.selection = DatabaseUtils.concatenateWhere(pageSelection, selection);
+            String[] pageArgs = args.toArray(new String[args.size()]);
+            this.selectionArgs = selectionArgs == null
+                    ? pageArgs : DatabaseUtils.appendSelectionArgs(pageArgs, selectionArgs);
+
+            orderBy = sortById ? PetContract.PetEntry._ID + " ASC"
+                    : sort + " ASC, " + PetContract.PetEntry._ID + " ASC";
+        }
+    }
+
+    /**
+     * Query the pets changed after the version in the URI, as described by
+     * {@link PetContract.PetChangeEntry}, oldest change first. The log keeps one change per pet,
+     * so this is the whole delta and it grows with the number of pets changed, not the number of
+     * writes.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs) {
+
+        long sinceVersion = 0;
+        String since = uri.getQueryParameter(PetContract.PetChangeEntry.QUERY_PARAMETER_SINCE);
+        if (since != null) {
+            try {
+                sinceVersion = Long.parseLong(since);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid version in " + uri, e);
+            }
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(CHANGES_TABLES);
+        builder.setProjectionMap(sChangesProjectionMap);
+        builder.setStrict(true);
+
+        selection = DatabaseUtils.concatenateWhere(PetContract.PetChangeEntry.TABLE_NAME + "."
+                + PetContract.PetChangeEntry.COLUMN_VERSION + ">?", selection);
+        String[] sinceArgs = new String[] { String.valueOf(sinceVersion) };
+        selectionArgs = selectionArgs == null
+                ? sinceArgs : DatabaseUtils.appendSelectionArgs(sinceArgs, selectionArgs);
+
+        String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            try {
+                limit = String.valueOf(Integer.parseInt(limit));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit in " + uri, e);
+            }
+        }
+
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                PetContract.PetChangeEntry.TABLE_NAME + "."
+                        + PetContract.PetChangeEntry.COLUMN_VERSION + " ASC", limit);
+    }
+
+    /**
+     * Search the full-text index for the pets whose name or breed has words starting with the
+     * words in the last segment of the URI. Unless a sort order is given, pets whose name starts
+     * with the first word come first, then the rest by name.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+
+        // Keep only letters and digits, so the user can't type FTS query syntax.
+        String[] words = uri.getLastPathSegment().split("[^\\p{L}\\p{N}]+");
+        StringBuilder match = new StringBuilder();
+        String firstWord = null;
+        for (String word : words) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            if (firstWord == null) {
+                firstWord = word;
+            }
+            match.append(word).append("* ");
+        }
+
+        if (firstWord == null) {
+            // Nothing to search for
+            return database.query(PetContract.PetEntry.TABLE_NAME,
+                    projection != null ? projection : PetCache.COLUMNS, "0", null,
+                    null, null, null);
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SEARCH_TABLES);
+        builder.setProjectionMap(sSearchProjectionMap);
+        builder.setStrict(true);
+
+        // Deleted pets stay in the index until they're purged.
+        selection = DatabaseUtils.concatenateWhere(PetContract.PetEntry.FTS_TABLE_NAME
+                + " MATCH ? AND +" + PetContract.PetEntry.TABLE_NAME + "."
+                + PetCompactor.COLUMN_DELETED_AT + " = 0", selection);
+        String[] matchArgs = new String[] { match.toString().trim() };
+        selectionArgs = selectionArgs == null
+                ? matchArgs : DatabaseUtils.appendSelectionArgs(matchArgs, selectionArgs);
+
+        if (sortOrder == null) {
+            sortOrder = "CASE WHEN " + PetContract.PetEntry.TABLE_NAME + "."
+                    + PetContract.PetEntry.COLUMN_NAME + " LIKE "
+                    + DatabaseUtils.sqlEscapeString(firstWord + "%") + " THEN 0 ELSE 1 END, "
+                    + PetContract.PetEntry.TABLE_NAME + "." + PetContract.PetEntry.COLUMN_NAME;
+        }
+
+        String limit = uri.getQueryParameter(PetContract.PetEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            try {
+                limit = String.valueOf(Integer.parseInt(limit));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid limit in " + uri, e);
+            }
+        }
+
+        return builder.query(database, projection, selection, selectionArgs, null, null,
+                sortOrder, limit);
+    }
+
+    /**
+     * Provider-specific methods, see {@link PetContract#METHOD_CACHE_STATS},
+     * {@link PetContract#METHOD_METRICS}, {@link PetContract#METHOD_QUERY_PLAN},
+     * {@link PetContract#METHOD_DELETE_CHUNK} and {@link PetContract#METHOD_RESTORE}.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (PetContract.METHOD_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putInt(PetContract.KEY_CACHE_HITS, mPetCache.hitCount());
+            stats.putInt(PetContract.KEY_CACHE_MISSES, mPetCache.missCount());
+            return stats;
+        }
+        if (PetContract.METHOD_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        }
+        if (PetContract.METHOD_QUERY_PLAN.equals(method)) {
+            Uri uri = arg != null ? Uri.parse(arg) : null;
+            if (uri == null || match(uri) != PETS) {
+                throw new IllegalArgumentException("Cannot explain the query of " + arg);
+            }
+            Bundle result = new Bundle();
+            result.putStringArray(PetContract.KEY_QUERY_PLAN, explainPage(uri));
+            return result;
+        }
+        if (PetContract.METHOD_DELETE_CHUNK.equals(method)) {
+            int limit;
+            try {
+                limit = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid chunk size " + arg, e);
+            }
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_ROWS_DELETED, deleteChunk(limit));
+            return result;
+        }
+        if (PetContract.METHOD_RESTORE.equals(method)) {
+            long since;
+            try {
+                since = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid restore time " + arg, e);
+            }
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_ROWS_RESTORED, restore(since));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Returns the steps of the plan SQLite picks for the page query of the URI, see
+     * {@link PetContract#METHOD_QUERY_PLAN}.
+     */
+    private String[] explainPage(Uri uri) {
+        PageQuery page = new PageQuery(uri, null, null);
+        String sql = SQLiteQueryBuilder.buildQueryString(false, PetContract.PetEntry.TABLE_NAME,
+                null, page.selection, null, null, page.orderBy, page.limit);
+
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql,
+                page.selectionArgs);
+        try {
+            List<String> steps = new ArrayList<String>();
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                steps.add(cursor.getString(detailIndex));
+            }
+            return steps.toArray(new String[steps.size()]);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Delete at most {@code limit} pets, the oldest first, without notifying anyone. See
+     * {@link PetContract#METHOD_DELETE_CHUNK}. They can be restored like any deleted pet.
+     *
+     * The pets are picked on the deleted_at index, which holds the pets that aren't deleted in
+     * ID order: walking the table instead would read past the pets of every earlier chunk, and
+     * deleting n pets would read n * n / 2 rows.
+     */
+    private int deleteChunk(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsDeleted = database.update(PetContract.PetEntry.TABLE_NAME,
+                deletedValues(), PetContract.PetEntry._ID + " IN (SELECT "
+                        + PetContract.PetEntry._ID + " FROM " + PetContract.PetEntry.TABLE_NAME
+                        + " WHERE " + PetCompactor.COLUMN_DELETED_AT + " = 0 ORDER BY "
+                        + PetContract.PetEntry._ID + " LIMIT " + limit + ")", null);
+
+        if (rowsDeleted != 0) {
+            evictCachedPets(Pet.NO_ID);
+            mCompactor.scheduleAfterDelete();
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Brings back the pets deleted at or after the given time and not purged yet, see
+     * {@link PetContract#METHOD_RESTORE}. They come back with their ID, photo and sync link.
+     */
+    private int restore(long since) {
+        if (since <= 0) {
+            throw new IllegalArgumentException("Restore time must be positive");
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(PetCompactor.COLUMN_DELETED_AT, 0);
+        int rowsRestored = mDbHelper.getWritableDatabase().update(PetContract.PetEntry.TABLE_NAME,
+                values, PetCompactor.COLUMN_DELETED_AT + ">=?",
+                new String[] { String.valueOf(since) });
+
+        if (rowsRestored != 0) {
+            notifyChange(PetContract.PetEntry.CONTENT_URI);
+        }
+        return rowsRestored;
+    }
+
+    /**
+     * Values marking pets deleted now.
+     */
+    private static ContentValues deletedValues() {
+        ContentValues values = new ContentValues();
+        values.put(PetCompactor.COLUMN_DELETED_AT, System.currentTimeMillis());
+        return values;
+    }
+
+    /**
+     * Returns the formats {@link #PET_EXPORT} can be streamed in, among the ones matching the filter.
+     */
+    @Nullable
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        if (match(uri) != PET_EXPORT) {
+            return null;
+        }
+        List<String> types = new ArrayList<String>();
+        for (String type : EXPORT_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Streams every pet in the first export format matching the filter.
+     */
+    @Nullable
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter,
+                                                  @Nullable Bundle opts) throws FileNotFoundException {
+        if (match(uri) != PET_EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            throw new FileNotFoundException("Cannot export pets as " + mimeTypeFilter);
+        }
+        return new AssetFileDescriptor(openExport(uri, types[0], opts), 0,
+                AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Streams every pet as CSV, or opens the photo of a pet to read it or to write a new one.
+     */
+    @Nullable
+    @Override
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode)
+            throws FileNotFoundException {
+        switch (match(uri)) {
+            case PET_EXPORT:
+                if ("r".equals(mode)) {
+                    return openExport(uri, PetContract.PetEntry.MIME_TYPE_CSV, null);
+                }
+                break;
+            case PET_PHOTO:
+                long id = Long.parseLong(uri.getPathSegments().get(1));
+                if ("r".equals(mode)) {
+                    return openPhoto(uri, id);
+                }
+                if ("w".equals(mode) || "wt".equals(mode)) {
+                    return openNewPhoto(uri, id);
+                }
+                break;
+        }
+        throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+    }
+
+    /**
+     * Returns the name of the pet's photo, or null if it has none.
+     *
+     * @throws FileNotFoundException if there's no such pet
+     */
+    private String queryPhotoName(Uri uri, long id) throws FileNotFoundException {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(PetContract.PetEntry.TABLE_NAME,
+                new String[] { PetContract.PetEntry.COLUMN_PHOTO },
+                PetContract.PetEntry._ID + "=? AND " + PetCompactor.SQL_NOT_DELETED,
+                new String[] { String.valueOf(id) }, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new FileNotFoundException("No pet for " + uri);
+            }
+            return cursor.getString(0);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private ParcelFileDescriptor openPhoto(Uri uri, long id) throws FileNotFoundException {
+        String name = queryPhotoName(uri, id);
+        if (name == null) {
+            throw new FileNotFoundException("No photo for " + uri);
+        }
+        return ParcelFileDescriptor.open(mPhotoStore.getFile(name),
+                ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns the write end of a pipe that a background thread copies to a new photo file. Once
+     * the caller closes it, the pet is switched to the new photo and the old one is deleted, so
+     * readers never see a photo half written. The pet's observers are notified then.
+     */
+    private ParcelFileDescriptor openNewPhoto(Uri uri, final long id) throws FileNotFoundException {
+        queryPhotoName(uri, id);
+
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot open " + uri + ": " + e);
+        }
+
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = mPhotoStore.newFile();
+                boolean saved = false;
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+                try {
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        byte[] buffer = new byte[PHOTO_BUFFER_SIZE];
+                        int count;
+                        while ((count = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, count);
+                        }
+                    }
+                    finally {
+                        out.close();
+                    }
+                    saved = setPhoto(id, file.getName());
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to save the photo of pet " + id, e);
+                }
+                finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Nothing left to read
+                    }
+                    if (!saved && !file.delete()) {
+                        Log.w(LOG_TAG, "Cannot delete " + file);
+                    }
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Points the pet to a new photo file and deletes the old one.
+     *
+     * @return false if the pet was deleted meanwhile
+     */
+    private boolean setPhoto(long id, String name) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(PetContract.PetEntry.COLUMN_PHOTO, name);
+        int rowsUpdated = database.update(PetContract.PetEntry.TABLE_NAME, values,
+                PetContract.PetEntry._ID + "=? AND " + PetCompactor.SQL_NOT_DELETED,
+                new String[] { String.valueOf(id) });
+        if (rowsUpdated == 0) {
+            return false;
+        }
+        if (getPendingChanges() == null) {
+            mPetCache.setPhoto(id, name);
+        } else {
+            evictCachedPets(id);
+        }
+        mPhotoStore.purgeTrash(database);
+        notifyChange(ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id));
+        return true;
+    }
+
+    /**
+     * Returns the read end of a pipe that a background thread fills with the export. Rows go
+     * straight from SQLite to the pipe, so memory use doesn't grow with the number of pets.
+     */
+    private ParcelFileDescriptor openExport(Uri uri, String mimeType, Bundle opts)
+            throws FileNotFoundException {
+        return openPipeHelper(uri, mimeType, opts, mimeType, new PetExporter(mDbHelper));
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -88,11 +1087,23 @@ public class PetProvider extends ContentProvider {
     @Override
     public String getType(@NonNull Uri uri) {
 
-        final int match = sUriMatcher.match(uri);
+        final int match = match(uri);
         switch (match) {
             case PETS:
+            case PET_SEARCH:
+            case SHELTER_PETS:
+            case SHELTERS_PETS:
                 return PetContract.PetEntry.CONTENT_LIST_TYPE;
+            case PET_EXPORT:
+                return PetContract.PetEntry.MIME_TYPE_CSV;
+            case PET_CHANGES:
+                return PetContract.PetChangeEntry.CONTENT_LIST_TYPE;
+            case PET_STATS:
+                return PetContract.PetStatsEntry.CONTENT_ITEM_TYPE;
+            case PET_PHOTO:
+                return PetContract.PetEntry.MIME_TYPE_PHOTO;
             case PET_ID:
+            case SHELTER_PET_ID:
                 return PetContract.PetEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unkown URI " + uri + " with match " +
@@ -107,17 +1118,69 @@ public class PetProvider extends ContentProvider {
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        final int match = match(uri);
+        long start = System.nanoTime();
+        Uri newUri = null;
+        try {
+            switch (match) {
+                case PETS:
+                    newUri = insertPet(uri, contentValues);
+                    return newUri;
+                case SHELTER_PETS:
+                    if (isShelterRoute(match)) {
+                        newUri = mShelters.insert(uri, contentValues);
+                        return newUri;
+                    }
+                    // Fall through, a shelter can't hold shelters
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+        }
+        finally {
+            mMetrics.record(PetMetrics.INSERT, match, System.nanoTime() - start,
+                    newUri != null ? 1 : 0);
         }
     }
 
     private Uri insertPet(Uri uri, ContentValues values) {
 
+        validatePet(values);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long id;
+        if (mUseStatements && PetStatements.canInsert(values)) {
+            try {
+                id = mStatements.insert(database, values);
+            } catch (SQLException e) {
+                Log.e(LOG_TAG, "Error inserting " + values, e);
+                id = -1;
+            }
+        }
+        else {
+            id = database.insert(PetContract.PetEntry.TABLE_NAME, null, values);
+        }
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        Uri petUri = ContentUris.withAppendedId(uri, id);
+
+        // Notify all listeners that the data has change for the new pet
+        notifyChange(petUri);
+
+        // Return the new URI with the ID of the newly inserted row appended at the end.
+        return petUri;
+    }
+
+    /**
+     * Check that the values describe a valid new pet.
+     *
+     * @throws IllegalArgumentException if they don't
+     */
+    static void validatePet(ContentValues values) {
+
         String name = values.getAsString(PetContract.PetEntry.COLUMN_NAME);
         if (name == null) {
             throw new IllegalArgumentException("Pet requires a name");
@@ -133,24 +1196,201 @@ public class PetProvider extends ContentProvider {
             throw new IllegalArgumentException("Pet requires valid weight");
         }
 
+        validateWritableColumns(values);
+    }
+
+    /**
+     * Photos are only written through {@link #PET_PHOTO}, a name given in the values could point
+     * anywhere. Pets are only deleted and restored through a delete and
+     * {@link PetContract#METHOD_RESTORE}.
+     */
+    private static void validateWritableColumns(ContentValues values) {
+        if (values.containsKey(PetContract.PetEntry.COLUMN_PHOTO)) {
+            throw new IllegalArgumentException("Pet photo can only be written through its URI");
+        }
+        if (values.containsKey(PetCompactor.COLUMN_DELETED_AT)) {
+            throw new IllegalArgumentException("Pet can only be deleted through a delete");
+        }
+    }
+
+    /**
+     * Insert all the given rows in a single transaction. Every row goes through the same
+     * validation as {@link #insert(Uri, ContentValues)}; if any row is invalid the whole batch
+     * is rolled back. Listeners are notified once, after the transaction commits.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+
+        final int match = match(uri);
+        if (match == SHELTER_PETS && isShelterRoute(match)) {
+            long shelterStart = System.nanoTime();
+            int shelterRowsInserted = 0;
+            try {
+                shelterRowsInserted = mShelters.bulkInsert(uri, values);
+                return shelterRowsInserted;
+            }
+            finally {
+                mMetrics.record(PetMetrics.BULK_INSERT, match, System.nanoTime() - shelterStart,
+                        shelterRowsInserted);
+            }
+        }
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        long id;
+        int rowsInserted = 0;
+
+        boolean committed = false;
 
+        long start = System.nanoTime();
+        PendingChanges changes = new PendingChanges();
+        mBatchChanges.set(changes);
+        database.beginTransaction();
         try {
-            id = database.insert(PetContract.PetEntry.TABLE_NAME, null, values);
-            if (id == -1) {
-                Log.e(LOG_TAG, "Failed to insert row for " + uri);
-                return null;
+            for (ContentValues value : values) {
+                if (insertPet(uri, value) != null) {
+                    rowsInserted++;
+                }
             }
+            database.setTransactionSuccessful();
+            committed = true;
+        }
+        finally {
+            database.endTransaction();
+            mBatchChanges.remove();
+            mMetrics.record(PetMetrics.BULK_INSERT, match, System.nanoTime() - start,
+                    committed ? rowsInserted : 0);
+        }
 
-            // Notify all listeners that the data has change for the pet content URI
-            getContext().getContentResolver().notifyChange(uri, null);
+        // The new rows are all over the list, notify it once rather than row by row.
+        changes.uris.clear();
+        if (rowsInserted != 0) {
+            changes.uris.add(uri);
+        }
+        commitChanges(changes);
+
+        return rowsInserted;
+    }
+
+    /**
+     * Apply all the operations in a single transaction, so either all of them are committed or
+     * none is. Listeners are notified once, after the transaction commits.
+     *
+     * A batch on the pets of a single shelter runs in a transaction of the shelter's database
+     * instead. A batch mixing shelters, or a shelter and the app's pets, isn't atomic across the
+     * databases: each shelter operation commits on its own.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        if (mShelters != null) {
+            long shelterId = PetShelters.getShelterId(operations);
+            if (shelterId != PetShelters.NO_SHELTER) {
+                return mShelters.applyBatch(shelterId, operations);
+            }
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        PendingChanges changes = new PendingChanges();
 
-            // Return the new URI with the ID of the newly inserted row appended at the end.
-            return ContentUris.withAppendedId(uri, id);
+        boolean committed = false;
+
+        mBatchChanges.set(changes);
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            committed = true;
         }
         finally {
-            database.close();
+            database.endTransaction();
+            mBatchChanges.remove();
+        }
+
+        commitChanges(changes);
+
+        return results;
+    }
+
+    /**
+     * Returns the changes held back on this thread: those of the batch running, or else those
+     * of the transaction a caller holds on the database, see {@link #beginDeferredNotifications}.
+     * Null if there's no transaction to wait for.
+     */
+    private PendingChanges getPendingChanges() {
+        PendingChanges batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            return batchChanges;
+        }
+        DeferredChanges deferred = sDeferredChanges.get();
+        if (deferred != null && deferred.database == mDbHelper.getWritableDatabase()) {
+            PendingChanges changes = deferred.changes.get(this);
+            if (changes == null) {
+                changes = new PendingChanges();
+                deferred.changes.put(this, changes);
+            }
+            return changes;
+        }
+        return null;
+    }
+
+    /**
+     * Applies the changes of a committed transaction. If it was nested in a caller's
+     * transaction, they wait for that one instead.
+     */
+    private void commitChanges(PendingChanges changes) {
+        PendingChanges outer = getPendingChanges();
+        if (outer != null) {
+            outer.addAll(changes);
+            return;
+        }
+        if (changes.allPets) {
+            mPetCache.clear();
+        } else {
+            for (Long id : changes.petIds) {
+                mPetCache.remove(id);
+            }
+        }
+        for (Uri uri : changes.uris) {
+            mNotifier.notifyChange(uri);
+        }
+    }
+
+    /**
+     * Notify the listeners of the given URI. Use the URI of the pet when only one changed, so
+     * only the observers of that pet and of the whole list requery. If a batch is running on this
+     * thread, the notification waits until it commits, and if a caller holds a transaction on the
+     * database, until the caller's commits, see {@link #beginDeferredNotifications}.
+     */
+    private void notifyChange(Uri uri) {
+        PendingChanges changes = getPendingChanges();
+        if (changes != null) {
+            changes.uris.add(uri);
+            return;
+        }
+        mNotifier.notifyChange(uri);
+    }
+
+    /**
+     * Drops the pet from the cache, or every pet for {@link Pet#NO_ID}. In a transaction, only
+     * once it commits, like the notifications.
+     */
+    private void evictCachedPets(long id) {
+        PendingChanges changes = getPendingChanges();
+        if (changes == null) {
+            if (id == Pet.NO_ID) {
+                mPetCache.clear();
+            } else {
+                mPetCache.remove(id);
+            }
+        } else if (id == Pet.NO_ID) {
+            changes.allPets = true;
+        } else {
+            changes.petIds.add(id);
         }
     }
 
@@ -161,16 +1401,32 @@ public class PetProvider extends ContentProvider {
     public int update(@NonNull Uri uri, @Nullable ContentValues contentValues, @Nullable String selection,
                       @Nullable String[] selectionArgs) {
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PET_ID:
-                selection = PetContract.PetEntry._ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            default:
-                throw  new IllegalArgumentException("Update is not supported for " + uri);
+        final int match = match(uri);
+        long start = System.nanoTime();
+        int rowsUpdated = 0;
+        try {
+            switch (match) {
+                case PETS:
+                    rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                case PET_ID:
+                    selection = PetContract.PetEntry._ID + "=?";
+                    selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
+                    rowsUpdated = updatePet(uri, contentValues, selection, selectionArgs);
+                    return rowsUpdated;
+                case SHELTER_PETS:
+                case SHELTER_PET_ID:
+                    if (isShelterRoute(match)) {
+                        rowsUpdated = mShelters.update(uri, contentValues, selection, selectionArgs);
+                        return rowsUpdated;
+                    }
+                    // Fall through, a shelter can't hold shelters
+                default:
+                    throw  new IllegalArgumentException("Update is not supported for " + uri);
+            }
+        }
+        finally {
+            mMetrics.record(PetMetrics.UPDATE, match, System.nanoTime() - start, rowsUpdated);
         }
     }
 
@@ -201,12 +1457,31 @@ public class PetProvider extends ContentProvider {
             }
         }
 
+        validateWritableColumns(contentValues);
+
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
-        int rowsUpdated = db.update(PetContract.PetEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+        int rowsUpdated;
+        boolean byId = match(uri) == PET_ID;
+        if (byId && mUseStatements && PetStatements.canUpdate(contentValues)) {
+            rowsUpdated = mStatements.update(db, ContentUris.parseId(uri), contentValues);
+        }
+        else {
+            rowsUpdated = db.update(PetContract.PetEntry.TABLE_NAME, contentValues,
+                    DatabaseUtils.concatenateWhere(PetCompactor.SQL_NOT_DELETED, selection),
+                    selectionArgs);
+        }
+
+        // A write committing on its own updates the cached pet in place.
+        if (byId && rowsUpdated != 0 && getPendingChanges() == null) {
+            mPetCache.update(ContentUris.parseId(uri), contentValues);
+        }
+        else if (rowsUpdated != 0) {
+            evictCachedPets(byId ? ContentUris.parseId(uri) : Pet.NO_ID);
+        }
 
         if (rowsUpdated != 0) {
             // Notify all listeners that the data has change for the pet content URI
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return rowsUpdated;
@@ -220,31 +1495,72 @@ public class PetProvider extends ContentProvider {
     public int delete(@NonNull Uri uri, @Nullable String selection,
                       @Nullable String[] selectionArgs) {
 
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return deletePet(uri, selection, selectionArgs);
-            case PET_ID:
-                // Delete a single row given by the ID in the URI
-                selection = PetContract.PetEntry._ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                return deletePet(uri, selection, selectionArgs);
-            default:
-                throw  new IllegalArgumentException("Deletion is not suported for " + uri);
+        final int match = match(uri);
+        long start = System.nanoTime();
+        int rowsDeleted = 0;
+        try {
+            switch (match) {
+                case PETS:
+                    rowsDeleted = deletePet(uri, selection, selectionArgs);
+                    return rowsDeleted;
+                case PET_ID:
+                    // Delete a single row given by the ID in the URI
+                    selection = PetContract.PetEntry._ID + "=?";
+                    selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
+                    rowsDeleted = deletePet(uri, selection, selectionArgs);
+                    return rowsDeleted;
+                case SHELTER_PETS:
+                case SHELTER_PET_ID:
+                    if (isShelterRoute(match)) {
+                        rowsDeleted = mShelters.delete(uri, selection, selectionArgs);
+                        return rowsDeleted;
+                    }
+                    // Fall through, a shelter can't hold shelters
+                default:
+                    throw  new IllegalArgumentException("Deletion is not suported for " + uri);
+            }
+        }
+        finally {
+            mMetrics.record(PetMetrics.DELETE, match, System.nanoTime() - start, rowsDeleted);
         }
     }
 
+    /**
+     * Marks the pets deleted, which hides them at once; {@link #mCompactor} purges them once
+     * they can no longer be restored, see {@link PetContract#METHOD_RESTORE}.
+     */
     private int deletePet(Uri uri, String selection, String[] selectionArgs) {
 
         // Get Writeable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        // Delete all rows that match the selection and selection args
-        int rowsDeleted =  database.delete(PetContract.PetEntry.TABLE_NAME, selection, selectionArgs);
+        // Mark all rows that match the selection and selection args
+        int rowsDeleted;
+        if (match(uri) == PET_ID) {
+            long id = ContentUris.parseId(uri);
+            if (mUseStatements) {
+                rowsDeleted = mStatements.delete(database, id, System.currentTimeMillis());
+            }
+            else {
+                rowsDeleted = database.update(PetContract.PetEntry.TABLE_NAME, deletedValues(),
+                        DatabaseUtils.concatenateWhere(PetCompactor.SQL_NOT_DELETED, selection),
+                        selectionArgs);
+            }
+            evictCachedPets(id);
+        }
+        else {
+            rowsDeleted = database.update(PetContract.PetEntry.TABLE_NAME, deletedValues(),
+                    DatabaseUtils.concatenateWhere(PetCompactor.SQL_NOT_DELETED, selection),
+                    selectionArgs);
+            if (rowsDeleted != 0) {
+                evictCachedPets(Pet.NO_ID);
+            }
+        }
 
         if (rowsDeleted != 0) {
+            mCompactor.scheduleAfterDelete();
             // Notify all listeners that the data has change for the pet content URI
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         return rowsDeleted;
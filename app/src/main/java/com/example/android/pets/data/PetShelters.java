@@ -0,0 +1,345 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetShelterEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The shelters' databases, for {@link PetProvider}, see {@link PetShelterEntry}.
+ *
+ * Each shelter has its own database file, {@link PetDbHelper} and {@link PetProvider}, which
+ * serves the shelter's URIs as if they were the app's pets: its cache, compiled statements and
+ * locks only cover the shelter. They're created on the first call for the shelter, and the
+ * database is only opened by the first query or write.
+ *
+ * A shelter is in use during every call on it, and as long as a cursor it returned is open.
+ * Shelters not in use for {@link #IDLE_TIMEOUT_MILLIS} are closed, which frees their connections
+ * and caches; the next call opens them again. That cancels the compaction a delete schedules,
+ * usually long before it runs, so an opening shelter compacts right away instead: the pets
+ * deleted during its earlier uses are purged then.
+ */
+class PetShelters {
+
+    /** Shelter ID of the URIs that aren't a shelter's */
+    static final long NO_SHELTER = -1;
+
+    /** How long a shelter stays open once it's no longer used */
+    static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final Pattern DATABASE_NAME_PATTERN = Pattern.compile("shelter_(\\d+)\\.db");
+
+    /**
+     * An open shelter.
+     */
+    private static final class Shelter {
+
+        final long id;
+        final PetDbHelper dbHelper;
+        final PetProvider provider;
+
+        /** Calls running and cursors open, guarded by PetShelters.this */
+        int users;
+
+        /** When the last user was done, guarded by PetShelters.this */
+        long lastUsed;
+
+        Shelter(long id, PetDbHelper dbHelper, PetProvider provider) {
+            this.id = id;
+            this.dbHelper = dbHelper;
+            this.provider = provider;
+        }
+    }
+
+    /**
+     * Cursor of a shelter, which keeps it in use until the cursor is closed.
+     */
+    private final class ShelterCursor extends CursorWrapper {
+
+        private Shelter mShelter;
+
+        ShelterCursor(Cursor cursor, Shelter shelter) {
+            super(cursor);
+            mShelter = shelter;
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            Shelter shelter;
+            synchronized (this) {
+                shelter = mShelter;
+                mShelter = null;
+            }
+            if (shelter != null) {
+                release(shelter);
+            }
+        }
+    }
+
+    private final Context mContext;
+    private final long mIdleTimeoutMillis;
+
+    /** Open shelters by ID, guarded by this */
+    private final Map<Long, Shelter> mShelters = new HashMap<Long, Shelter>();
+
+    /** Closes the idle shelters, off the callers' threads since closing checkpoints the WAL */
+    private final ScheduledExecutorService mCloser = Executors.newSingleThreadScheduledExecutor();
+
+    /** Whether a check for idle shelters is scheduled, guarded by this */
+    private boolean mCloseScheduled;
+
+    private final Runnable mCloseIdle = new Runnable() {
+        @Override
+        public void run() {
+            closeIdle();
+        }
+    };
+
+    PetShelters(Context context) {
+        this(context, IDLE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs the shelters with another idle timeout, for the tests.
+     */
+    PetShelters(Context context, long idleTimeoutMillis) {
+        mContext = context;
+        mIdleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    static String getDatabaseName(long shelterId) {
+        return "shelter_" + shelterId + ".db";
+    }
+
+    /**
+     * Returns the ID of the shelter in a {@code shelters/#/pets} URI.
+     */
+    static long getShelterId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Returns the ID of the shelter all the operations are on, or {@link #NO_SHELTER} if some
+     * aren't on a shelter or they're on several.
+     */
+    static long getShelterId(List<ContentProviderOperation> operations) {
+        long shelterId = NO_SHELTER;
+        for (ContentProviderOperation operation : operations) {
+            List<String> segments = operation.getUri().getPathSegments();
+            if (segments.size() < 3 || !PetContract.PATH_SHELTERS.equals(segments.get(0))) {
+                return NO_SHELTER;
+            }
+            long operationShelterId = getShelterId(operation.getUri());
+            if (shelterId != NO_SHELTER && operationShelterId != shelterId) {
+                return NO_SHELTER;
+            }
+            shelterId = operationShelterId;
+        }
+        return shelterId;
+    }
+
+    /**
+     * Returns the IDs of the shelters that have a database, in increasing order.
+     */
+    List<Long> listShelters() {
+        List<Long> shelterIds = new ArrayList<Long>();
+        for (String name : mContext.databaseList()) {
+            Matcher matcher = DATABASE_NAME_PATTERN.matcher(name);
+            if (matcher.matches()) {
+                shelterIds.add(Long.parseLong(matcher.group(1)));
+            }
+        }
+        Collections.sort(shelterIds);
+        return shelterIds;
+    }
+
+    Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                 String sortOrder) {
+        Shelter shelter = acquire(getShelterId(uri));
+        Cursor cursor = null;
+        try {
+            cursor = shelter.provider.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+        finally {
+            if (cursor == null) {
+                release(shelter);
+            }
+        }
+        return new ShelterCursor(cursor, shelter);
+    }
+
+    /**
+     * Queries the pets of every shelter, see {@link PetShelterEntry#CONTENT_PETS_URI}.
+     */
+    Cursor queryAll(String[] projection, String selection, String[] selectionArgs,
+                    String sortOrder) {
+        List<Long> shelterIds = listShelters();
+        if (shelterIds.isEmpty()) {
+            return new MatrixCursor(projection != null ? projection : PetCache.COLUMNS, 0);
+        }
+
+        Cursor[] cursors = new Cursor[shelterIds.size()];
+        boolean done = false;
+        try {
+            for (int i = 0; i < cursors.length; i++) {
+                long shelterId = shelterIds.get(i);
+                cursors[i] = query(PetShelterEntry.buildPetsUri(shelterId),
+                        withShelterId(projection, shelterId), selection, selectionArgs, sortOrder);
+            }
+            done = true;
+        }
+        finally {
+            if (!done) {
+                for (Cursor cursor : cursors) {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+            }
+        }
+        return new MergeCursor(cursors);
+    }
+
+    /**
+     * Replaces {@link PetShelterEntry#COLUMN_SHELTER_ID} in the projection by the shelter's ID.
+     */
+    private static String[] withShelterId(String[] projection, long shelterId) {
+        if (projection == null) {
+            return null;
+        }
+        String[] shelterProjection = projection.clone();
+        for (int i = 0; i < shelterProjection.length; i++) {
+            if (PetShelterEntry.COLUMN_SHELTER_ID.equals(shelterProjection[i])) {
+                shelterProjection[i] = shelterId + " AS " + PetShelterEntry.COLUMN_SHELTER_ID;
+            }
+        }
+        return shelterProjection;
+    }
+
+    Uri insert(Uri uri, ContentValues values) {
+        Shelter shelter = acquire(getShelterId(uri));
+        try {
+            return shelter.provider.insert(uri, values);
+        }
+        finally {
+            release(shelter);
+        }
+    }
+
+    int bulkInsert(Uri uri, ContentValues[] values) {
+        Shelter shelter = acquire(getShelterId(uri));
+        try {
+            return shelter.provider.bulkInsert(uri, values);
+        }
+        finally {
+            release(shelter);
+        }
+    }
+
+    int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        Shelter shelter = acquire(getShelterId(uri));
+        try {
+            return shelter.provider.update(uri, values, selection, selectionArgs);
+        }
+        finally {
+            release(shelter);
+        }
+    }
+
+    int delete(Uri uri, String selection, String[] selectionArgs) {
+        Shelter shelter = acquire(getShelterId(uri));
+        try {
+            return shelter.provider.delete(uri, selection, selectionArgs);
+        }
+        finally {
+            release(shelter);
+        }
+    }
+
+    /**
+     * Applies operations that are all on the given shelter, in one transaction of its database.
+     */
+    ContentProviderResult[] applyBatch(long shelterId, ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        Shelter shelter = acquire(shelterId);
+        try {
+            return shelter.provider.applyBatch(operations);
+        }
+        finally {
+            release(shelter);
+        }
+    }
+
+    private synchronized Shelter acquire(long shelterId) {
+        Shelter shelter = mShelters.get(shelterId);
+        if (shelter == null) {
+            PetDbHelper dbHelper = new PetDbHelper(mContext, getDatabaseName(shelterId));
+            PetProvider provider = new PetProvider(dbHelper, shelterId);
+            provider.attachInfo(mContext, null);
+            shelter = new Shelter(shelterId, dbHelper, provider);
+            mShelters.put(shelterId, shelter);
+        }
+        shelter.users++;
+        return shelter;
+    }
+
+    private synchronized void release(Shelter shelter) {
+        shelter.users--;
+        shelter.lastUsed = SystemClock.elapsedRealtime();
+        if (!mCloseScheduled) {
+            mCloseScheduled = true;
+            mCloser.schedule(mCloseIdle, mIdleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Whether the shelter is open, for the tests.
+     */
+    synchronized boolean isOpen(long shelterId) {
+        return mShelters.containsKey(shelterId);
+    }
+
+    /**
+     * Closes the shelters idle for long enough, and checks again later if others are open. Runs
+     * under the lock, so a shelter can't be picked up again while it's being closed.
+     */
+    private synchronized void closeIdle() {
+        long now = SystemClock.elapsedRealtime();
+        Iterator<Shelter> shelters = mShelters.values().iterator();
+        while (shelters.hasNext()) {
+            Shelter shelter = shelters.next();
+            if (shelter.users == 0 && now - shelter.lastUsed >= mIdleTimeoutMillis) {
+                shelters.remove();
+                shelter.provider.shutdown();
+                shelter.dbHelper.close();
+            }
+        }
+
+        mCloseScheduled = !mShelters.isEmpty();
+        if (mCloseScheduled) {
+            mCloser.schedule(mCloseIdle, mIdleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Cache of precompiled statements for the most common writes in {@link PetProvider}: inserting a
+ * full row, updating a full row by ID and deleting by ID, which marks the pet deleted. Going through
+ * {@link SQLiteDatabase#insert}, {@link SQLiteDatabase#update} or {@link SQLiteDatabase#delete}
+ * builds and compiles new SQL from the {@link ContentValues} on every call; here the SQL is
+ * compiled once and the values are bound straight into it.
+ *
+ * The values must already have been validated by the provider. A {@link SQLiteStatement} isn't
+ * thread safe, so every statement is used under its own lock.
+ */
+class PetStatements {
+
+    private static final String SQL_INSERT = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_NAME + ", " + PetEntry.COLUMN_BREED + ", "
+            + PetEntry.COLUMN_GENDER + ", " + PetEntry.COLUMN_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetEntry.COLUMN_NAME + " = ?, " + PetEntry.COLUMN_BREED + " = ?, "
+            + PetEntry.COLUMN_GENDER + " = ?, " + PetEntry.COLUMN_WEIGHT + " = ? WHERE "
+            + PetEntry._ID + " = ? AND " + PetCompactor.COLUMN_DELETED_AT + " = 0";
+
+    private static final String SQL_DELETE = "UPDATE " + PetEntry.TABLE_NAME + " SET "
+            + PetCompactor.COLUMN_DELETED_AT + " = ? WHERE " + PetEntry._ID + " = ? AND "
+            + PetCompactor.COLUMN_DELETED_AT + " = 0";
+
+    /** Database the statements were compiled for */
+    private SQLiteDatabase mDatabase;
+
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mUpdate;
+    private SQLiteStatement mDelete;
+
+    /**
+     * Whether the values only hold pet columns, so {@link #insert} can store them.
+     */
+    static boolean canInsert(ContentValues values) {
+        int petColumns = 0;
+        if (values.containsKey(PetEntry.COLUMN_NAME)) petColumns++;
+        if (values.containsKey(PetEntry.COLUMN_BREED)) petColumns++;
+        if (values.containsKey(PetEntry.COLUMN_GENDER)) petColumns++;
+        if (values.containsKey(PetEntry.COLUMN_WEIGHT)) petColumns++;
+        return petColumns == values.size();
+    }
+
+    /**
+     * Whether the values hold every pet column and nothing else, so {@link #update} can store
+     * them.
+     */
+    static boolean canUpdate(ContentValues values) {
+        return values.size() == 4 && canInsert(values);
+    }
+
+    /**
+     * Inserts a pet. A missing breed is stored as null and a missing weight as 0, like the
+     * column defaults.
+     *
+     * @return the ID of the new row, or -1 if it couldn't be inserted
+     */
+    long insert(SQLiteDatabase database, ContentValues values) {
+        SQLiteStatement statement;
+        synchronized (this) {
+            compileFor(database);
+            statement = mInsert;
+        }
+        synchronized (statement) {
+            bindPet(statement, values);
+            return statement.executeInsert();
+        }
+    }
+
+    /**
+     * Updates every column of the pet with the given ID, unless it's deleted.
+     *
+     * @return the number of rows updated
+     */
+    int update(SQLiteDatabase database, long id, ContentValues values) {
+        SQLiteStatement statement;
+        synchronized (this) {
+            compileFor(database);
+            statement = mUpdate;
+        }
+        synchronized (statement) {
+            bindPet(statement, values);
+            statement.bindLong(5, id);
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Marks the pet with the given ID deleted, see {@link PetCompactor}.
+     *
+     * @param deletedAt time of the delete, in milliseconds since the epoch
+     * @return the number of rows deleted, 0 if it already was
+     */
+    int delete(SQLiteDatabase database, long id, long deletedAt) {
+        SQLiteStatement statement;
+        synchronized (this) {
+            compileFor(database);
+            statement = mDelete;
+        }
+        synchronized (statement) {
+            statement.bindLong(1, deletedAt);
+            statement.bindLong(2, id);
+            return statement.executeUpdateDelete();
+        }
+    }
+
+    /**
+     * Closes the compiled statements. They're compiled again on next use.
+     */
+    synchronized void close() {
+        if (mDatabase != null) {
+            mInsert.close();
+            mUpdate.close();
+            mDelete.close();
+            mDatabase = null;
+        }
+    }
+
+    /**
+     * Compiles the statements the first time they're needed, or again if the database has been
+     * reopened since.
+     */
+    private synchronized void compileFor(SQLiteDatabase database) {
+        if (mDatabase != database) {
+            close();
+            mInsert = database.compileStatement(SQL_INSERT);
+            mUpdate = database.compileStatement(SQL_UPDATE);
+            mDelete = database.compileStatement(SQL_DELETE);
+            mDatabase = database;
+        }
+    }
+
+    private static void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.bindString(1, values.getAsString(PetEntry.COLUMN_NAME));
+
+        String breed = values.getAsString(PetEntry.COLUMN_BREED);
+        if (breed == null) {
+            statement.bindNull(2);
+        }
+        else {
+            statement.bindString(2, breed);
+        }
+
+        statement.bindLong(3, values.getAsInteger(PetEntry.COLUMN_GENDER));
+
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_WEIGHT);
+        statement.bindLong(4, weight != null ? weight : 0);
+    }
+}
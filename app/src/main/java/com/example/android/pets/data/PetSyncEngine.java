@@ -0,0 +1,346 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.RemoteException;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetSyncServer.PushResult;
+import com.example.android.pets.data.PetSyncServer.Record;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Syncs the pets with a {@link PetSyncServer}, sending and receiving only the pets that changed
+ * since the last sync.
+ *
+ * The local changes are read from {@link PetChangeEntry} and pushed in batches of
+ * {@link #BATCH_SIZE}, then the server's changes are pulled in batches of the same size. A pet
+ * that is the same as when it was last synced isn't pushed, which also keeps the pets written by
+ * a pull from being sent back. When the server refuses a write because another shelter changed
+ * the pet first, the server's pet replaces the local one: the first write to reach the server
+ * wins, whichever shelter made it.
+ *
+ * The position in the local change log and in the server's versions is saved after every batch,
+ * and the next sync carries on from there. The position in the log is a cursor of
+ * {@link PetSyncStore}, which keeps the changes of the purged pets until the sync has read them.
+ * Each pulled batch is written along with its links in one transaction, so an interrupted sync
+ * never duplicates pets.
+ *
+ * {@link #sync} blocks, run it on a background thread.
+ */
+public class PetSyncEngine {
+
+    /**
+     * Outcome of a finished sync.
+     */
+    public static class Result {
+
+        /** Local changes the server accepted */
+        public final int rowsPushed;
+
+        /** Local changes refused because the pet changed on the server, and replaced by it */
+        public final int conflicts;
+
+        /** Server changes written to the local pets */
+        public final int rowsPulled;
+
+        Result(int rowsPushed, int conflicts, int rowsPulled) {
+            this.rowsPushed = rowsPushed;
+            this.conflicts = conflicts;
+            this.rowsPulled = rowsPulled;
+        }
+    }
+
+    /** Number of pets per request to the server */
+    public static final int BATCH_SIZE = 100;
+
+    /** Name of the engine's cursor in the change log, see {@link PetSyncStore#getCursor} */
+    static final String CURSOR_PUSHED = "pushed";
+
+    /** Preferences holding the positions reached by the last sync */
+    private static final String STATE = "pet_sync_state";
+    /** Position in the change log, before it was a cursor of {@link PetSyncStore} */
+    private static final String KEY_PUSHED_VERSION = "pushed_version";
+    private static final String KEY_PULLED_VERSION = "pulled_version";
+
+    private static final String[] CHANGE_COLUMNS = {
+            PetChangeEntry.COLUMN_VERSION,
+            PetChangeEntry.COLUMN_OPERATION,
+            PetEntry._ID,
+            PetEntry.COLUMN_NAME,
+            PetEntry.COLUMN_BREED,
+            PetEntry.COLUMN_GENDER,
+            PetEntry.COLUMN_WEIGHT
+    };
+
+    private final ContentResolver mResolver;
+    private final SharedPreferences mState;
+    private final PetSyncStore mStore;
+    private final PetSyncServer mServer;
+
+    private volatile boolean mCancelled;
+
+    public PetSyncEngine(Context context, PetSyncServer server) {
+        this(context.getContentResolver(),
+                context.getSharedPreferences(STATE, Context.MODE_PRIVATE),
+                PetDbHelper.getInstance(context), server);
+    }
+
+    /**
+     * Constructs an engine on other pets than the app's, for the tests.
+     *
+     * @param resolver reaching a provider on the database of {@code dbHelper}
+     * @param state    where the position reached on the server is saved
+     */
+    PetSyncEngine(ContentResolver resolver, SharedPreferences state, PetDbHelper dbHelper,
+                  PetSyncServer server) {
+        mResolver = resolver;
+        mState = state;
+        mStore = new PetSyncStore(dbHelper);
+        mServer = server;
+    }
+
+    /**
+     * Stops the sync after the current batch. The next sync picks up from there.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Pushes the local changes, then pulls the server's.
+     *
+     * @return the outcome, or null if the sync was cancelled
+     * @throws IOException if the server can't be reached or the pets can't be written
+     */
+    public Result sync() throws IOException {
+        int rowsPushed = 0;
+        int conflicts = 0;
+        int rowsPulled = 0;
+
+        long pushedVersion = mStore.getCursor(CURSOR_PUSHED);
+        if (mState.contains(KEY_PUSHED_VERSION)) {
+            pushedVersion = Math.max(pushedVersion, mState.getLong(KEY_PUSHED_VERSION, 0));
+            mStore.putCursor(CURSOR_PUSHED, pushedVersion);
+            mState.edit().remove(KEY_PUSHED_VERSION).commit();
+        }
+        while (!mCancelled) {
+            Cursor cursor = mResolver.query(
+                    PetChangeEntry.buildChangesUri(pushedVersion, BATCH_SIZE),
+                    CHANGE_COLUMNS, null, null, null);
+            if (cursor == null) {
+                throw new IOException("Cannot read the pet changes");
+            }
+
+            List<Long> petIds = new ArrayList<Long>();
+            List<Record> writes = new ArrayList<Record>();
+            int changes;
+            try {
+                changes = cursor.getCount();
+                PetCursorMapper mapper = new PetCursorMapper(cursor);
+                while (cursor.moveToNext()) {
+                    pushedVersion = cursor.getLong(0);
+                    Record write = toWrite(mapper, cursor.getInt(1));
+                    if (write != null) {
+                        petIds.add(mapper.getId());
+                        writes.add(write);
+                    }
+                }
+            }
+            finally {
+                cursor.close();
+            }
+
+            if (!writes.isEmpty()) {
+                List<PushResult> results = mServer.push(writes);
+                List<Record> refused = new ArrayList<Record>();
+                SQLiteDatabase database = mStore.getDatabase();
+                database.beginTransaction();
+                try {
+                    for (int i = 0; i < results.size(); i++) {
+                        PushResult result = results.get(i);
+                        if (!result.accepted) {
+                            refused.add(result.record);
+                        } else if (result.record.isDeleted()) {
+                            mStore.remove(petIds.get(i));
+                        } else {
+                            mStore.put(new PetSyncStore.Link(result.record.remoteId,
+                                    result.record.version,
+                                    withId(result.record.pet, petIds.get(i))));
+                        }
+                    }
+                    database.setTransactionSuccessful();
+                }
+                finally {
+                    database.endTransaction();
+                }
+                rowsPushed += results.size() - refused.size();
+                conflicts += refused.size();
+                applyRemote(refused);
+            }
+
+            mStore.putCursor(CURSOR_PUSHED, pushedVersion);
+            if (changes < BATCH_SIZE) {
+                break;
+            }
+        }
+
+        long pulledVersion = mState.getLong(KEY_PULLED_VERSION, 0);
+        while (!mCancelled) {
+            List<Record> records = mServer.pull(pulledVersion, BATCH_SIZE);
+            if (records.isEmpty()) {
+                break;
+            }
+            rowsPulled += applyRemote(records);
+            pulledVersion = records.get(records.size() - 1).version;
+            mState.edit().putLong(KEY_PULLED_VERSION, pulledVersion).commit();
+            if (records.size() < BATCH_SIZE) {
+                break;
+            }
+        }
+
+        return mCancelled ? null : new Result(rowsPushed, conflicts, rowsPulled);
+    }
+
+    /**
+     * Returns the write to push for the change at the cursor's position, or null if the server
+     * already has the pet as it is.
+     */
+    private Record toWrite(PetCursorMapper mapper, int operation) {
+        PetSyncStore.Link link = mStore.findByPetId(mapper.getId());
+        if (operation == PetChangeEntry.OPERATION_DELETE) {
+            // A pet that never reached the server has nothing to delete there.
+            return link == null ? null : new Record(link.remoteId, link.remoteVersion, null);
+        }
+        Pet pet = mapper.toPet();
+        if (link == null) {
+            return new Record(UUID.randomUUID().toString(), 0, withId(pet, Pet.NO_ID));
+        }
+        if (pet.equals(link.pet)) {
+            return null;
+        }
+        return new Record(link.remoteId, link.remoteVersion, withId(pet, Pet.NO_ID));
+    }
+
+    /**
+     * Writes the server's pets over the local ones, skipping those already up to date.
+     *
+     * @return the number of pets written
+     */
+    private int applyRemote(List<Record> records) throws IOException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        List<Record> applied = new ArrayList<Record>();
+        List<PetSyncStore.Link> links = new ArrayList<PetSyncStore.Link>();
+
+        for (Record record : records) {
+            PetSyncStore.Link link = mStore.findByRemoteId(record.remoteId);
+            if (link != null && record.version <= link.remoteVersion) {
+                // Pushed from here, or pulled already
+                continue;
+            }
+            if (record.isDeleted()) {
+                if (link == null) {
+                    continue;
+                }
+                operations.add(ContentProviderOperation.newDelete(petUri(link)).build());
+            } else if (link != null) {
+                operations.add(ContentProviderOperation.newUpdate(petUri(link))
+                        .withValues(record.pet.toContentValues()).build());
+            } else {
+                operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                        .withValues(record.pet.toContentValues()).build());
+            }
+            applied.add(record);
+            links.add(link);
+        }
+
+        if (operations.isEmpty()) {
+            return 0;
+        }
+
+        // The provider runs in this process on the same database, its batch joins this
+        // transaction and the pets and their links are committed together. Its notifications
+        // wait for this transaction, the batch's own commit doesn't reach the disk.
+        SQLiteDatabase database = mStore.getDatabase();
+        boolean successful = false;
+        PetProvider.beginDeferredNotifications(database);
+        database.beginTransaction();
+        try {
+            ContentProviderResult[] results =
+                    mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < results.length; i++) {
+                Record record = applied.get(i);
+                PetSyncStore.Link link = links.get(i);
+                if (record.isDeleted()) {
+                    mStore.remove(link.pet.getId());
+                    continue;
+                }
+                long petId;
+                if (link == null) {
+                    petId = parseInsertedId(results[i].uri, record);
+                } else if (results[i].count == 0) {
+                    // Deleted here meanwhile, the server's pet wins.
+                    mStore.remove(link.pet.getId());
+                    petId = parseInsertedId(
+                            mResolver.insert(PetEntry.CONTENT_URI, record.pet.toContentValues()),
+                            record);
+                } else {
+                    petId = link.pet.getId();
+                }
+                mStore.put(new PetSyncStore.Link(record.remoteId, record.version,
+                        withId(record.pet, petId)));
+            }
+            database.setTransactionSuccessful();
+            successful = true;
+        } catch (RemoteException e) {
+            throw new IOException("Cannot write the synced pets", e);
+        } catch (OperationApplicationException e) {
+            throw new IOException("Cannot write the synced pets", e);
+        }
+        finally {
+            boolean committed = false;
+            try {
+                database.endTransaction();
+                committed = successful;
+            }
+            finally {
+                PetProvider.endDeferredNotifications(committed);
+            }
+        }
+        return operations.size();
+    }
+
+    /**
+     * Returns the ID of the pet inserted for the record.
+     *
+     * @param uri returned by the insert, null if it failed
+     * @throws IOException if it failed, which rolls back the whole batch
+     */
+    private static long parseInsertedId(Uri uri, Record record) throws IOException {
+        if (uri == null) {
+            throw new IOException("Cannot insert the synced pet " + record);
+        }
+        return ContentUris.parseId(uri);
+    }
+
+    private static Uri petUri(PetSyncStore.Link link) {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, link.pet.getId());
+    }
+
+    private static Pet withId(Pet pet, long id) {
+        return new Pet(id, pet.getName(), pet.getBreed(), pet.getGender(), pet.getWeight());
+    }
+}
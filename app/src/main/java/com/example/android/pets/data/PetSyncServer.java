@@ -0,0 +1,74 @@
+package com.example.android.pets.data;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Shelter server holding the shared roster, as seen by {@link PetSyncEngine}.
+ *
+ * The server knows pets by a remote ID and gives every accepted write a new version, higher than
+ * all the previous ones. A write names the version it was based on; if the pet changed on the
+ * server since then, the write is refused and the server's pet is returned instead, so the first
+ * write to reach the server always wins.
+ */
+public interface PetSyncServer {
+
+    /**
+     * State of a pet on the server, or a write to it.
+     */
+    final class Record {
+
+        public final String remoteId;
+
+        /** Version of the pet on the server, or the version a write is based on, 0 for new pets */
+        public final long version;
+
+        /** The pet, with no ID, or null if it was deleted */
+        public final Pet pet;
+
+        public Record(String remoteId, long version, Pet pet) {
+            this.remoteId = remoteId;
+            this.version = version;
+            this.pet = pet;
+        }
+
+        public boolean isDeleted() {
+            return pet == null;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{remoteId=" + remoteId + ", version=" + version + ", pet=" + pet + "}";
+        }
+    }
+
+    /**
+     * Outcome of one pushed write.
+     */
+    final class PushResult {
+
+        /** Whether the write was applied */
+        public final boolean accepted;
+
+        /** The pet as it is now on the server, with its new version if the write was applied */
+        public final Record record;
+
+        public PushResult(boolean accepted, Record record) {
+            this.accepted = accepted;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Applies the writes, each on its own.
+     *
+     * @return the outcome of each write, in the same order
+     */
+    List<PushResult> push(List<Record> writes) throws IOException;
+
+    /**
+     * Returns the latest state of at most {@code limit} pets changed after {@code sinceVersion},
+     * deleted ones included, in version order.
+     */
+    List<Record> pull(long sinceVersion, int limit) throws IOException;
+}
@@ -0,0 +1,173 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Links the local pets to the server's, for {@link PetSyncEngine}. For every synced pet it keeps
+ * the remote ID, the server version and the pet as last synced, which tells whether the local
+ * pet changed since.
+ *
+ * It also keeps the sync cursors, the versions of {@link PetChangeEntry} read so far by each
+ * reader of the log. The changes of a purged pet are dropped once every cursor has passed them,
+ * by a trigger when the pet is purged or by {@link #putCursor} when the last cursor passes them;
+ * with no cursor at all, as soon as the pet is purged.
+ */
+class PetSyncStore {
+
+    static final String TABLE_NAME = "pet_sync";
+
+    static final String COLUMN_PET_ID = "pet_id";
+    static final String COLUMN_REMOTE_ID = "remote_id";
+    static final String COLUMN_REMOTE_VERSION = "remote_version";
+
+    static final String CURSORS_TABLE_NAME = "pet_sync_cursors";
+
+    static final String COLUMN_CURSOR_NAME = "name";
+    /** Version of the last change read */
+    static final String COLUMN_CHANGE_VERSION = "change_version";
+
+    /** Selection of the changes of the purged pets */
+    private static final String SQL_PURGED = PetChangeEntry.COLUMN_PET_ID + " NOT IN (SELECT "
+            + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + ")";
+
+    private static final String[] COLUMNS = {
+            COLUMN_PET_ID,
+            COLUMN_REMOTE_ID,
+            COLUMN_REMOTE_VERSION,
+            PetEntry.COLUMN_NAME,
+            PetEntry.COLUMN_BREED,
+            PetEntry.COLUMN_GENDER,
+            PetEntry.COLUMN_WEIGHT
+    };
+
+    /**
+     * A synced pet.
+     */
+    static final class Link {
+
+        final String remoteId;
+        final long remoteVersion;
+
+        /** The pet as last synced, with its local ID */
+        final Pet pet;
+
+        Link(String remoteId, long remoteVersion, Pet pet) {
+            this.remoteId = remoteId;
+            this.remoteVersion = remoteVersion;
+            this.pet = pet;
+        }
+    }
+
+    private final PetDbHelper mDbHelper;
+
+    PetSyncStore(PetDbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    /** Returns the database, opened on the first call */
+    SQLiteDatabase getDatabase() {
+        return mDbHelper.getWritableDatabase();
+    }
+
+    Link findByPetId(long petId) {
+        return find(COLUMN_PET_ID + "=?", String.valueOf(petId));
+    }
+
+    Link findByRemoteId(String remoteId) {
+        return find(COLUMN_REMOTE_ID + "=?", remoteId);
+    }
+
+    private Link find(String selection, String arg) {
+        Cursor cursor = getDatabase().query(TABLE_NAME, COLUMNS, selection, new String[] { arg },
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Pet pet = new Pet(cursor.getLong(0), cursor.getString(3), cursor.getString(4),
+                    cursor.getInt(5), cursor.getInt(6));
+            return new Link(cursor.getString(1), cursor.getLong(2), pet);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /** Saves the link, replacing any other link of the same pet or remote ID */
+    void put(Link link) {
+        ContentValues values = link.pet.toContentValues();
+        values.put(COLUMN_PET_ID, link.pet.getId());
+        values.put(COLUMN_REMOTE_ID, link.remoteId);
+        values.put(COLUMN_REMOTE_VERSION, link.remoteVersion);
+        getDatabase().insertWithOnConflict(TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    void remove(long petId) {
+        getDatabase().delete(TABLE_NAME, COLUMN_PET_ID + "=?",
+                new String[] { String.valueOf(petId) });
+    }
+
+    /**
+     * Returns the version of the last change read by the cursor, 0 if it hasn't read any.
+     */
+    long getCursor(String name) {
+        Cursor cursor = getDatabase().query(CURSORS_TABLE_NAME,
+                new String[] { COLUMN_CHANGE_VERSION }, COLUMN_CURSOR_NAME + "=?",
+                new String[] { name }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Saves the version of the last change read by the cursor, which only ever moves forward.
+     * The changes of the purged pets that every cursor has now passed are dropped with it.
+     */
+    void putCursor(String name, long changeVersion) {
+        SQLiteDatabase database = getDatabase();
+        database.beginTransaction();
+        try {
+            long passed = queryMinCursor(database);
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CURSOR_NAME, name);
+            values.put(COLUMN_CHANGE_VERSION, changeVersion);
+            database.insertWithOnConflict(CURSORS_TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            long reached = queryMinCursor(database);
+
+            // Without any cursor before, the purges didn't keep any change.
+            if (passed != -1 && reached > passed) {
+                database.delete(PetChangeEntry.TABLE_NAME, PetChangeEntry.COLUMN_VERSION
+                        + " BETWEEN ? AND ? AND " + SQL_PURGED, new String[] {
+                        String.valueOf(passed + 1), String.valueOf(reached) });
+            }
+            database.setTransactionSuccessful();
+        }
+        finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the version the furthest behind cursor is at, -1 if there's no cursor.
+     */
+    private static long queryMinCursor(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT MIN(" + COLUMN_CHANGE_VERSION + ") FROM "
+                + CURSORS_TABLE_NAME, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+}
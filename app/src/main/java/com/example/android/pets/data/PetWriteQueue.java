@@ -0,0 +1,287 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Write-behind queue for {@link PetProvider}. Inserts, updates, deletes and restores return at once and run
+ * in the order they were queued on a single background thread, so the caller never waits for the
+ * disk. Their results come back on the main thread.
+ *
+ * Updates of a pet that are still waiting in the queue are merged into one: the later values
+ * override the earlier ones and a single write reaches SQLite. Only while no other write was
+ * queued after them, though: merging would run the later values ahead of that write.
+ *
+ * A write the provider rejects is logged and reported as a failure through its callback, instead
+ * of crashing the background thread.
+ */
+public class PetWriteQueue {
+
+    public static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /**
+     * Receives the result of a write, on the main thread.
+     */
+    public interface Callback<T> {
+
+        /**
+         * @param result the URI of the new pet for an insert, or the number of rows changed
+         *               for an update or a delete. A failed insert gives null.
+         */
+        void onComplete(T result);
+    }
+
+    private static PetWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+    private final Executor mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Updates queued but not started yet, with no other write queued after them, by pet URI.
+     * Guarded by itself, which also keeps the writes in the order they're queued.
+     */
+    private final Map<Uri, PendingUpdate> mPendingUpdates = new HashMap<Uri, PendingUpdate>();
+
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private PetWriteQueue(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Queues the insertion of a pet.
+     *
+     * @param callback receives the URI of the new pet, or null if it couldn't be inserted. May be null.
+     */
+    public void insert(final Uri uri, final ContentValues values, final Callback<Uri> callback) {
+        final ContentValues copy = new ContentValues(values);
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                Uri petUri = null;
+                try {
+                    petUri = mResolver.insert(uri, copy);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to insert " + copy, e);
+                }
+                deliver(callback, petUri);
+            }
+        });
+    }
+
+    /**
+     * Queues the insertion of several pets, in one transaction.
+     *
+     * @param callback receives the number of pets inserted. May be null.
+     */
+    public void bulkInsert(final Uri uri, ContentValues[] values, final Callback<Integer> callback) {
+        final ContentValues[] copy = new ContentValues[values.length];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = new ContentValues(values[i]);
+        }
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                int rowsInserted = 0;
+                try {
+                    rowsInserted = mResolver.bulkInsert(uri, copy);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to insert " + copy.length + " pets", e);
+                }
+                deliver(callback, rowsInserted);
+            }
+        });
+    }
+
+    /**
+     * Queues an update of a pet. If an update of the same URI is still waiting in the queue and
+     * no other write was queued since, the values are merged into it instead.
+     *
+     * @param callback receives the number of rows updated. May be null.
+     */
+    public void update(final Uri uri, ContentValues values, Callback<Integer> callback) {
+        final PendingUpdate pending;
+        synchronized (mPendingUpdates) {
+            PendingUpdate queued = mPendingUpdates.get(uri);
+            if (queued != null) {
+                queued.mValues.putAll(values);
+                queued.mCallbacks.add(callback);
+                return;
+            }
+            pending = new PendingUpdate(values, callback);
+            mPendingUpdates.put(uri, pending);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runUpdate(uri, pending);
+                }
+            });
+        }
+    }
+
+    private void runUpdate(Uri uri, PendingUpdate pending) {
+        // From now on, updates of this pet queue up behind this one.
+        synchronized (mPendingUpdates) {
+            if (mPendingUpdates.get(uri) == pending) {
+                mPendingUpdates.remove(uri);
+            }
+        }
+
+        int rowsUpdated = 0;
+        try {
+            rowsUpdated = mResolver.update(uri, pending.mValues, null, null);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to update " + uri + " with " + pending.mValues, e);
+        }
+        for (Callback<Integer> callback : pending.mCallbacks) {
+            deliver(callback, rowsUpdated);
+        }
+    }
+
+    /**
+     * Queues the deletion of a pet.
+     *
+     * @param callback receives the number of rows deleted. May be null.
+     */
+    public void delete(final Uri uri, final Callback<Integer> callback) {
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                int rowsDeleted = 0;
+                try {
+                    rowsDeleted = mResolver.delete(uri, null, null);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to delete " + uri, e);
+                }
+                deliver(callback, rowsDeleted);
+            }
+        });
+    }
+
+    /**
+     * Queues the restoring of the pets deleted at or after the given time, see
+     * {@link PetContract#METHOD_RESTORE}.
+     *
+     * @param callback receives the number of pets restored. May be null.
+     */
+    public void restore(final long deletedSince, final Callback<Integer> callback) {
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                int rowsRestored = 0;
+                try {
+                    Bundle result = mResolver.call(PetContract.PetEntry.CONTENT_URI,
+                            PetContract.METHOD_RESTORE, String.valueOf(deletedSince), null);
+                    if (result != null) {
+                        rowsRestored = result.getInt(PetContract.KEY_ROWS_RESTORED);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to restore the pets deleted since " + deletedSince, e);
+                }
+                deliver(callback, rowsRestored);
+            }
+        });
+    }
+
+    /**
+     * Queues the copy of an image as the photo of a pet. The image is scaled down to
+     * {@link PetPhotos#MAX_PHOTO_SIZE} and stored as a JPEG, so a photo straight from the camera
+     * doesn't take megabytes.
+     *
+     * @param petUri   the pet's URI
+     * @param imageUri the image to copy, from any content provider
+     * @param callback receives whether the photo was saved. May be null.
+     */
+    public void savePhoto(final Uri petUri, final Uri imageUri, final Callback<Boolean> callback) {
+        enqueue(new Runnable() {
+            @Override
+            public void run() {
+                boolean saved = false;
+                try {
+                    Bitmap bitmap = PetPhotos.decodeSampled(mResolver, imageUri,
+                            PetPhotos.MAX_PHOTO_SIZE);
+                    // Compressed in memory first, the provider keeps whatever is written.
+                    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+                    if (bitmap != null && PetPhotos.scaleDown(bitmap, PetPhotos.MAX_PHOTO_SIZE)
+                            .compress(Bitmap.CompressFormat.JPEG, PetPhotos.JPEG_QUALITY, jpeg)) {
+                        OutputStream out = mResolver.openOutputStream(
+                                PetContract.PetEntry.buildPhotoUri(ContentUris.parseId(petUri)));
+                        try {
+                            jpeg.writeTo(out);
+                        }
+                        finally {
+                            out.close();
+                        }
+                        saved = true;
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Failed to save " + imageUri + " as the photo of " + petUri, e);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Failed to save " + imageUri + " as the photo of " + petUri, e);
+                }
+                deliver(callback, saved);
+            }
+        });
+    }
+
+    /**
+     * Queues a write other than an update. The updates queued before it stop taking the values
+     * of later ones.
+     */
+    private void enqueue(Runnable write) {
+        synchronized (mPendingUpdates) {
+            mPendingUpdates.clear();
+            mExecutor.execute(write);
+        }
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onComplete(result);
+            }
+        });
+    }
+
+    /**
+     * An update waiting in the queue, with the callbacks of every update merged into it.
+     */
+    private static class PendingUpdate {
+
+        final ContentValues mValues;
+        final List<Callback<Integer>> mCallbacks = new ArrayList<Callback<Integer>>();
+
+        PendingUpdate(ContentValues values, Callback<Integer> callback) {
+            mValues = new ContentValues(values);
+            mCallbacks.add(callback);
+        }
+    }
+}